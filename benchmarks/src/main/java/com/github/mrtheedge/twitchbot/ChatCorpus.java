@@ -0,0 +1,92 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Random;
+
+/**
+ * Synthetic chat used by the benchmarks. Everything is generated from a fixed seed so runs are comparable between
+ * builds. Each corpus is meant to look like a different kind of traffic: ordinary chat, an all caps raid, link spam
+ * and lines of commands.
+ */
+public final class ChatCorpus {
+
+    public static final int DEFAULT_SIZE = 10_000;
+
+    private static final long SEED = 0x7769746368L;
+
+    private static final String[] WORDS = {
+            "hey", "stream", "love", "this", "game", "what", "is", "the", "best", "build", "lol", "gg", "nice", "play",
+            "that", "was", "close", "wow", "chat", "pog", "kappa", "boss", "fight", "again", "can", "you", "do", "it",
+            "hello", "from", "germany", "first", "time", "here", "how", "long", "have", "been", "playing", "today",
+            "music", "song", "name", "please", "thanks", "for", "raid", "hype", "clip", "it", "no", "way", "rip"
+    };
+
+    private static final String[] DOMAINS = {
+            "google.com", "bit.ly/2fakeUrl", "https://free-followers.net/claim", "www.cheap-skins.ru",
+            "http://clips.twitch.tv/SomeClipName", "discord.gg/abcdef", "youtube.com/watch?v=dQw4w9WgXcQ"
+    };
+
+    private static final String[] COMMANDS = {
+            "points", "rank", "uptime", "addcom !hello Hello <user>!", "editcom !hello Hi <user>",
+            "delcom !hello", "vote 1", "poll open", "raffle", "auction 100", "blacklist add badword",
+            "timers add promo 15 Follow the stream!", "hello", "discord", "socials"
+    };
+
+    public enum Kind { NORMAL, CAPS_RAID, LINK_SPAM, COMMANDS }
+
+    private ChatCorpus() {}
+
+    public static String[] messages(Kind kind) {
+        return messages(kind, DEFAULT_SIZE);
+    }
+
+    public static String[] messages(Kind kind, int size) {
+        Random random = new Random(SEED + kind.ordinal());
+        String[] messages = new String[size];
+
+        for (int i = 0; i < size; i++) {
+            switch (kind) {
+                case NORMAL:
+                    messages[i] = sentence(random, 3 + random.nextInt(12));
+                    break;
+                case CAPS_RAID:
+                    messages[i] = sentence(random, 4 + random.nextInt(10)).toUpperCase();
+                    break;
+                case LINK_SPAM:
+                    messages[i] = sentence(random, 2 + random.nextInt(6)) + " " + DOMAINS[random.nextInt(DOMAINS.length)];
+                    break;
+                case COMMANDS:
+                    messages[i] = COMMANDS[random.nextInt(COMMANDS.length)];
+                    break;
+            }
+        }
+        return messages;
+    }
+
+    /*
+        Nicks look like real Twitch user names: lowercase, letters, digits and underscores, 4 to 25 characters.
+     */
+    public static String[] users(int count) {
+        Random random = new Random(SEED);
+        String[] users = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            if (random.nextBoolean()) sb.append('_');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(i); // Keeps every nick unique
+            users[i] = sb.toString();
+        }
+        return users;
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        if (random.nextInt(4) == 0) sb.append('!');
+        return sb.toString();
+    }
+}
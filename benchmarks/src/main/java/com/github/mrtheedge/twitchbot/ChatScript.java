@@ -0,0 +1,170 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The chat for ReplayHarness to send: every line as Twitch would send it, when to send it (relative to the start) and
+ * which user sent it. Lines are built up front, so replaying them allocates nothing that would show up in the bot's
+ * heap numbers.
+ *
+ * A script is either synthetic (from ChatCorpus, at a steady rate, with a share of caps, link and copypasta spam) or
+ * read from a log of raw IRC lines as Twitch sent them, timed by their tmi-sent-ts tags.
+ *
+ * Lines that should earn a strike are marked as spam, so the harness can time a timeout from the line that earned it.
+ * Synthetic spam is marked as it's made. Lines from a log are run through a SpamFilter with the checks that depend on
+ * timing (flood and copypasta) turned off, since the script is built all at once.
+ */
+final class ChatScript {
+
+    private static final String PASTA = "This is a copypasta raid, paste it in chat so everyone sees how hype this stream is";
+
+    final String[] lines;
+    final long[] offsetNanos;
+    final int[] users;
+    final boolean[] spam;
+    final String[] userNames;
+    final long lengthNanos;     // When the script would start over if it loops
+
+    private final Map<String, Integer> userIndex;
+
+    private ChatScript(List<String> lines, List<Long> offsets, List<Integer> users, List<Boolean> spam,
+                       List<String> userNames, long gapNanos) {
+        int size = lines.size();
+        if (size == 0) throw new IllegalArgumentException("There are no chat lines to replay");
+
+        this.lines = lines.toArray(new String[size]);
+        this.offsetNanos = new long[size];
+        this.users = new int[size];
+        this.spam = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            offsetNanos[i] = offsets.get(i);
+            this.users[i] = users.get(i);
+            this.spam[i] = spam.get(i);
+        }
+        this.userNames = userNames.toArray(new String[0]);
+        this.lengthNanos = offsetNanos[size - 1] + gapNanos;
+
+        userIndex = new HashMap<>(userNames.size() * 2);
+        for (int i = 0; i < this.userNames.length; i++) userIndex.put(this.userNames[i], i);
+    }
+
+    /*
+        The user's index, or -1 if they never say anything in the script.
+     */
+    int userIndex(String nick) {
+        Integer index = userIndex.get(nick);
+        return index == null ? -1 : index;
+    }
+
+    /*
+        Size lines from a pool of users, sent at a steady rate. About spamFraction of them are spam, split evenly
+        between all caps, links and one copypasta.
+     */
+    static ChatScript synthetic(String channel, int userCount, int size, double perSecond, double spamFraction) {
+        String[] names = ChatCorpus.users(userCount);
+        String[] normal = ChatCorpus.messages(ChatCorpus.Kind.NORMAL);
+        String[] caps = ChatCorpus.messages(ChatCorpus.Kind.CAPS_RAID);
+        String[] links = ChatCorpus.messages(ChatCorpus.Kind.LINK_SPAM);
+        Random random = new Random(size);
+
+        List<String> lines = new ArrayList<>(size);
+        List<Long> offsets = new ArrayList<>(size);
+        List<Integer> users = new ArrayList<>(size);
+        List<Boolean> spam = new ArrayList<>(size);
+        long gap = (long) (1e9 / perSecond);
+        for (int i = 0; i < size; i++) {
+            int user = random.nextInt(userCount);
+            double kind = random.nextDouble();
+            String message;
+            if (kind < spamFraction / 3) {
+                message = caps[i % caps.length];
+            } else if (kind < spamFraction * 2 / 3) {
+                message = links[i % links.length];
+            } else if (kind < spamFraction) {
+                message = PASTA;
+            } else {
+                message = normal[i % normal.length];
+            }
+
+            lines.add(privmsg(channel, names[user], message));
+            offsets.add(i * gap);
+            users.add(user);
+            spam.add(kind < spamFraction);
+        }
+        return new ChatScript(lines, offsets, users, spam, Arrays.asList(names), gap);
+    }
+
+    /*
+        Every PRIVMSG in the log, moved to the given channel. Lines without a tmi-sent-ts are sent right after the one
+        before them.
+     */
+    static ChatScript fromLog(Path log, String channel) throws IOException {
+        List<String> lines = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        List<Integer> users = new ArrayList<>();
+        List<Boolean> spam = new ArrayList<>();
+        List<String> userNames = new ArrayList<>();
+        SpamFilter filter = new SpamFilter(SpamFilterConfig.DEFAULT.toBuilder()
+                .setCheckForFlood(false)
+                .setCheckForCopypasta(false)
+                .setTimeoutOnStrikes(false)
+                .build());
+        Map<String, Integer> seen = new HashMap<>();
+
+        long first = -1;
+        long last = 0;
+        try (BufferedReader in = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int command = line.indexOf(" PRIVMSG #");
+                int prefix = line.indexOf(" :") + 2;
+                if (command < 0 || prefix < 2 || prefix > command) continue;
+
+                String nick = line.substring(prefix, line.indexOf('!', prefix));
+                int text = line.indexOf(" :", command + 1);
+                String tags = line.startsWith("@") ? line.substring(1, line.indexOf(' ')) : "";
+
+                long sentAt = sentTimestamp(tags);
+                if (sentAt < 0) sentAt = last;
+                if (first < 0) first = sentAt;
+                last = Math.max(last, sentAt);
+
+                Integer user = seen.get(nick);
+                if (user == null) {
+                    user = userNames.size();
+                    seen.put(nick, user);
+                    userNames.add(nick);
+                }
+
+                lines.add(line.substring(0, command) + " PRIVMSG " + channel + line.substring(text));
+                offsets.add((sentAt - first) * 1_000_000);
+                users.add(user);
+                spam.add(filter.isSpam(nick, line.substring(text + 2)) != SpamType.NONE);
+            }
+        }
+        return new ChatScript(lines, offsets, users, spam, userNames, 1_000_000);
+    }
+
+    private static long sentTimestamp(String tags) {
+        for (String tag : tags.split(";")) {
+            if (tag.startsWith("tmi-sent-ts=")) {
+                try {
+                    return Long.parseLong(tag.substring("tmi-sent-ts=".length()));
+                } catch (NumberFormatException ex) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String privmsg(String channel, String user, String message) {
+        return "@badges=;color=;display-name=" + user + ";emotes=;mod=0;subscriber=0;user-type= :" + user + "!" + user
+                + "@" + user + ".tmi.twitch.tv PRIVMSG " + channel + " :" + message;
+    }
+}
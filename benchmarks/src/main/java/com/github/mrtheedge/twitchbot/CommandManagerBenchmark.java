@@ -0,0 +1,46 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.NoSuchCommandException;
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of CommandManager.parseCommand for lines that have already had their '!' removed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CommandManagerBenchmark {
+
+    private CommandManager commandManager;
+    private ImmutableMap<String, String> tags;
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setUp() throws NoSuchCommandException {
+        commandManager = new CommandManager();
+        commandManager.setDataSource(new UserDataManager());
+        tags = ImmutableMap.of("display-name", "generic_user", "mod", "0", "subscriber", "1");
+        lines = ChatCorpus.messages(ChatCorpus.Kind.COMMANDS);
+
+        // Custom commands from the corpus, so calls go through the compiled templates
+        ImmutableMap<String, String> mod = ImmutableMap.of("mod", "1");
+        commandManager.parseCommand("a_mod", "addcom hello Hello <user>, you have <points> points!", mod);
+        commandManager.parseCommand("a_mod", "addcom discord Join the discord at discord.gg/example", mod);
+        commandManager.parseCommand("a_mod", "addcom socials <touser> follow on twitter too", mod);
+    }
+
+    @Benchmark
+    public Object parseCommand() throws NoSuchCommandException {
+        String line = lines[next++];
+        if (next == lines.length) next = 0;
+
+        return commandManager.parseCommand("generic_user", line, tags);
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Votes per millisecond with several event workers counting votes for the same poll at once, each for its own users.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(4)
+@State(Scope.Benchmark)
+public class PollBenchmark {
+
+    private static final int USERS_PER_THREAD = 1 << 20;
+
+    private final AtomicInteger threads = new AtomicInteger();
+    private Poll poll;
+
+    @State(Scope.Thread)
+    public static class Voter {
+        int firstId;
+        int next;
+
+        @Setup
+        public void setUp(PollBenchmark benchmark) {
+            firstId = benchmark.threads.getAndIncrement() * USERS_PER_THREAD;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // A new poll each iteration, so the votes keep counting instead of all being repeats
+        poll = new Poll("Which game next?", Arrays.asList("One", "Two", "Three", "Four"));
+    }
+
+    @Benchmark
+    public Object vote(Voter voter) {
+        int n = voter.next++ & (USERS_PER_THREAD - 1);
+        return poll.vote(voter.firstId + n, n % 4 + 1);
+    }
+}
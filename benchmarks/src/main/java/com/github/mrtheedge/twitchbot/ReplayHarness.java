@@ -0,0 +1,241 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test for the whole bot. Starts a StubIrcServer, connects a real TwitchBotController to it and replays chat
+ * at it, either synthetic (--rate messages a second) or from a log of raw IRC lines (--log, sped up with --speed).
+ * The script loops until --duration seconds are up.
+ *
+ * Moderation latency is the time from sending the chat line that earned a user their timeout to reading the bot's
+ * /timeout for them, so everything the bot does on the way (the socket, PircBotX, the event pipeline, the spam check
+ * and the wait in the OutboundScheduler) is counted. The line that earned it is the spam line (see ChatScript) that
+ * took the user to the strike limit since their last timeout, or their latest spam line if they had fewer; whatever
+ * they post after it doesn't make the timeout look any faster. Timeouts with no spam line to time them from (eg. for
+ * flooding) are counted but not timed. Timeouts are paced by the moderator message budget
+ * like on Twitch, so a raid that earns more timeouts than the budget allows shows up as a growing tail.
+ *
+ *     java -cp target/benchmarks.jar com.github.mrtheedge.twitchbot.ReplayHarness --rate 5000 --duration 60
+ */
+public class ReplayHarness {
+
+    private static final int SCRIPT_SIZE = 50_000;
+    private static final long BATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int STRIKES = SpamFilterConfig.DEFAULT.getAllowedStrikes(); // What the bot runs with
+
+    private final String channel;
+    private final ChatScript script;
+    private final long durationNanos;
+    private final double speed;
+
+    // Per user, when each of their spam lines since their last timeout was sent, up to the strike limit. Written by
+    // the sending thread and read by the server's reader, each user's under a lock on their own array.
+    private final long[][] spamSentAt;
+    private final int[] spamPending;
+    private final LatencyHistogram moderationLatency = new LatencyHistogram();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong untimedTimeouts = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private final CountDownLatch joined = new CountDownLatch(1);
+    private final String timeoutPrefix;
+    private final String replyPrefix;
+
+    private ReplayHarness(String channel, ChatScript script, long durationNanos, double speed) {
+        this.channel = channel;
+        this.script = script;
+        this.durationNanos = durationNanos;
+        this.speed = speed;
+        spamSentAt = new long[script.userNames.length][STRIKES];
+        spamPending = new int[script.userNames.length];
+        timeoutPrefix = "PRIVMSG " + channel + " :/timeout ";
+        replyPrefix = "PRIVMSG " + channel + " :";
+    }
+
+    public static void main(String[] args) throws Exception {
+        String log = null;
+        String channel = "#loadtest";
+        double rate = 1000;
+        double speed = 1;
+        double spam = 0.05;
+        int users = 10_000;
+        long duration = 30;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--log": log = value; break;
+                case "--channel": channel = value.startsWith("#") ? value : "#" + value; break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--speed": speed = Double.parseDouble(value); break;
+                case "--spam": spam = Double.parseDouble(value); break;
+                case "--users": users = Integer.parseInt(value); break;
+                case "--duration": duration = Long.parseLong(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ChatScript script = log == null
+                ? ChatScript.synthetic(channel, users, SCRIPT_SIZE, rate, spam)
+                : ChatScript.fromLog(Paths.get(log), channel);
+        new ReplayHarness(channel, script, TimeUnit.SECONDS.toNanos(duration), speed).run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+
+        try (StubIrcServer server = new StubIrcServer(this::botSaid)) {
+            TwitchBotController controller = new TwitchBotController(Collections.singletonList(channel), "localhost",
+                    server.getPort(), "bot", "oauth:test", null);
+            Thread bot = new Thread(controller::connect, "replay-bot");
+            bot.start();
+            if (!joined.await(30, TimeUnit.SECONDS)) throw new IOException("The bot never joined " + channel);
+            Thread.sleep(500); // Time for /mods to come back
+
+            BotMetrics metrics = controller.getMetrics();
+            long processedBefore = metrics.getMessages();
+            long maxHeap = 0;
+            long sent = 0;
+            long start = System.nanoTime();
+            long nextReport = start + TimeUnit.SECONDS.toNanos(1);
+            long sentAtReport = 0;
+
+            System.out.println("Replaying " + script.lines.length + " lines from " + script.userNames.length
+                    + " users at " + speed + "x for " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + "s");
+            while (true) {
+                long now = System.nanoTime();
+                long elapsed = now - start;
+                if (elapsed >= durationNanos) break;
+
+                // Everything that's due, as one write
+                long due = (long) (elapsed * speed);
+                while (true) {
+                    int i = (int) (sent % script.lines.length);
+                    long offset = (sent / script.lines.length) * script.lengthNanos + script.offsetNanos[i];
+                    if (offset > due) break;
+                    server.write(script.lines[i]);
+                    if (script.spam[i]) spamSent(script.users[i], now);
+                    sent++;
+                }
+                server.flush();
+
+                if (now >= nextReport) {
+                    long heap = memory.getHeapMemoryUsage().getUsed();
+                    maxHeap = Math.max(maxHeap, heap);
+                    System.out.printf("%3ds sent %d (%d/s) processed %d timeouts %d heap %dMB%n",
+                            TimeUnit.NANOSECONDS.toSeconds(elapsed), sent, sent - sentAtReport,
+                            metrics.getMessages() - processedBefore, timeouts.get(), heap >> 20);
+                    sentAtReport = sent;
+                    nextReport += TimeUnit.SECONDS.toNanos(1);
+                }
+                LockSupport.parkNanos(BATCH_NANOS);
+            }
+
+            // Give the bot a few seconds to catch up on what it was sent
+            long sendingTook = System.nanoTime() - start;
+            long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (metrics.getMessages() - processedBefore < sent && System.nanoTime() < drainDeadline) {
+                Thread.sleep(10);
+            }
+            long processed = metrics.getMessages() - processedBefore;
+            long processingTook = System.nanoTime() - start;
+            maxHeap = Math.max(maxHeap, memory.getHeapMemoryUsage().getUsed());
+
+            report(sent, sendingTook, processed, processingTook, maxHeap, gcCount(), gcMillis(), gcCount, gcMillis);
+            System.out.println();
+            printStages(metrics);
+
+            controller.disconnect();
+            bot.join(5000);
+        }
+    }
+
+    /*
+        Called on the server's reader thread for every line the bot sends.
+     */
+    private void botSaid(String line, long receivedAt) {
+        if (line.startsWith("JOIN " + channel)) {
+            joined.countDown();
+        } else if (line.startsWith(timeoutPrefix)) {
+            int end = line.indexOf(' ', timeoutPrefix.length());
+            String user = line.substring(timeoutPrefix.length(), end < 0 ? line.length() : end);
+            int index = script.userIndex(user);
+            long earnedAt = index < 0 ? -1 : timeoutEarnedAt(index);
+            if (earnedAt < 0) {
+                untimedTimeouts.incrementAndGet();
+            } else {
+                moderationLatency.record(receivedAt - earnedAt);
+            }
+            timeouts.incrementAndGet();
+        } else if (line.startsWith(replyPrefix)) {
+            replies.incrementAndGet();
+        }
+    }
+
+    private void spamSent(int user, long sentAt) {
+        long[] sent = spamSentAt[user];
+        synchronized (sent) {
+            if (spamPending[user] < STRIKES) sent[spamPending[user]++] = sentAt;
+        }
+    }
+
+    /*
+        When the line that earned the user's timeout was sent, or -1 if they have no spam lines pending. Starts the
+        user over for their next timeout.
+     */
+    private long timeoutEarnedAt(int user) {
+        long[] sent = spamSentAt[user];
+        synchronized (sent) {
+            int pending = spamPending[user];
+            spamPending[user] = 0;
+            return pending == 0 ? -1 : sent[pending - 1];
+        }
+    }
+
+    private void report(long sent, long sendingTook, long processed, long processingTook, long maxHeap,
+                        long gcCountAfter, long gcMillisAfter, long gcCountBefore, long gcMillisBefore) {
+        LatencyHistogram.Snapshot latency = moderationLatency.snapshot();
+        System.out.println();
+        System.out.printf("Sent      %d lines, %.0f/s%n", sent, sent / (sendingTook / 1e9));
+        System.out.printf("Processed %d lines, %.0f/s%s%n", processed, processed / (processingTook / 1e9),
+                processed < sent ? " (fell behind by " + (sent - processed) + ")" : "");
+        System.out.printf("Timeouts  %d (%d not timed), replies %d%n", timeouts.get(), untimedTimeouts.get(), replies.get());
+        System.out.printf("Moderation latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                latency.percentile(0.5) / 1e6, latency.percentile(0.9) / 1e6, latency.percentile(0.99) / 1e6,
+                latency.percentile(0.999) / 1e6, latency.max() / 1e6);
+        System.out.printf("Heap      max %dMB used%n", maxHeap >> 20);
+        System.out.printf("GC        %d collections, %dms%n", gcCountAfter - gcCountBefore, gcMillisAfter - gcMillisBefore);
+    }
+
+    private static void printStages(BotMetrics metrics) {
+        System.out.println("Stage                 count     p50 us     p99 us   p99.9 us     max us");
+        for (Map.Entry<String, LatencySummary> e : metrics.getLatencies().entrySet()) {
+            LatencySummary s = e.getValue();
+            if (s.getCount() == 0) continue;
+            System.out.printf("%-18s %8d %10.1f %10.1f %10.1f %10.1f%n", e.getKey(), s.getCount(), s.getP50Micros(),
+                    s.getP99Micros(), s.getP999Micros(), s.getMaxMicros());
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of SpamFilter.isSpam over each kind of chat traffic. Run with "-prof gc" to see the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SpamFilterBenchmark {
+
+    @Param({"NORMAL", "CAPS_RAID", "LINK_SPAM"})
+    public ChatCorpus.Kind corpus;
+
+    private SpamFilter spamFilter;
+    private String[] messages;
+    private String[] users;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // A thousand users posting millions of messages a second would all be flooding, which isn't what's measured
+        spamFilter = new SpamFilter(SpamFilterConfig.DEFAULT.toBuilder().setCheckForFlood(false).build());
+        spamFilter.addWordToBlacklist("badword");
+        spamFilter.addWordToBlacklist("anotherbadword");
+
+        messages = ChatCorpus.messages(corpus);
+        users = ChatCorpus.users(1_000);
+    }
+
+    @Benchmark
+    public Object isSpam() {
+        int i = next++;
+        if (next == messages.length) next = 0;
+
+        return spamFilter.isSpam(users[i % users.length], messages[i]);
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.NoSuchUserException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User bookkeeping and leaderboard queries against a populated UserDataManager. Every user in the population has
+ * joined, chatted and has some currency, so the standings have real work to do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class UserDataManagerBenchmark {
+
+    @Param({"1000", "100000"})
+    public int population;
+
+    private UserDataManager userDataManager;
+    private String[] users;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String nextUser(String[] users) {
+            String user = users[next++];
+            if (next == users.length) next = 0;
+            return user;
+        }
+    }
+
+    @Setup
+    public void setUp() throws NoSuchUserException {
+        userDataManager = new UserDataManager();
+        users = ChatCorpus.users(population);
+
+        for (int i = 0; i < users.length; i++) {
+            userDataManager.join(users[i]);
+            userDataManager.newMessage(users[i]);
+            userDataManager.addCurrency(users[i], i % 5_000);
+        }
+    }
+
+    @Benchmark
+    public void newMessage(Cursor cursor) {
+        userDataManager.newMessage(cursor.nextUser(users));
+    }
+
+    @Benchmark
+    public void partThenJoin(Cursor cursor) {
+        String user = cursor.nextUser(users);
+        userDataManager.part(user);
+        userDataManager.join(user);
+    }
+
+    @Benchmark
+    public Object activeUsers() {
+        return userDataManager.activeUsers(5);
+    }
+
+    @Benchmark
+    public int payout() {
+        return userDataManager.payout(1, 1, 5);
+    }
+
+    @Benchmark
+    public Object topCurrencyStandings() {
+        return userDataManager.topCurrencyStandings(10);
+    }
+
+    @Benchmark
+    public Object topViewTimeStandings() {
+        return userDataManager.topViewTimeStandings(10);
+    }
+
+    @Benchmark
+    public int userCurrencyStanding(Cursor cursor) throws NoSuchUserException {
+        return userDataManager.userCurrencyStanding(cursor.nextUser(users));
+    }
+
+    @Benchmark
+    public int userViewTimeStanding(Cursor cursor) throws NoSuchUserException {
+        return userDataManager.userViewTimeStanding(cursor.nextUser(users));
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An auction for a single item, paid for in currency. The current high bid is one immutable Bid behind an
+ * AtomicReference, and a new bid only replaces it with a compare and set, so bids from every event worker are taken
+ * without a lock and the last one in never silently overwrites a higher one.
+ *
+ * Bidding holds the currency in escrow: it is taken from the bidder before their bid goes in, and handed back as soon
+ * as they are outbid (or right away, if their bid didn't win the race). Raising your own high bid only takes the
+ * difference. The winner's currency is simply kept when the auction closes. Every amount taken is either given back or
+ * spent on the item exactly once, no matter how the bids interleave.
+ */
+final class Auction {
+
+    enum BidResult {
+        HIGHEST, TOO_LOW, NOT_ENOUGH_CURRENCY, CLOSED
+    }
+
+    /*
+        The high bid at some point in time. Closing the auction swaps in a closed copy, so a bid racing the close
+        fails its compare and set instead of landing after it.
+     */
+    static final class Bid {
+        final int bidder;   // UserTable.NO_USER before the first bid
+        final int amount;
+        final boolean closed;
+
+        Bid(int bidder, int amount, boolean closed) {
+            this.bidder = bidder;
+            this.amount = amount;
+            this.closed = closed;
+        }
+    }
+
+    private final String item;
+    private final int minimum;
+    private final UserDataManager users;
+    private final AtomicReference<Bid> high;
+
+    /*
+        The first bid has to be at least the minimum, every bid after that has to beat the one before it.
+     */
+    Auction(String item, int minimum, UserDataManager users) {
+        this.item = item;
+        this.minimum = Math.max(1, minimum);
+        this.users = users;
+        high = new AtomicReference<>(new Bid(UserTable.NO_USER, 0, false));
+    }
+
+    BidResult bid(int bidder, int amount) {
+        while (true) {
+            Bid current = high.get();
+            if (current.closed) return BidResult.CLOSED;
+            if (amount < minimum || amount <= current.amount) return BidResult.TOO_LOW;
+
+            // Their earlier bid is already held, only the rest is needed
+            boolean raise = current.bidder == bidder;
+            int escrow = raise ? amount - current.amount : amount;
+            if (!users.withdrawCurrency(bidder, escrow)) return BidResult.NOT_ENOUGH_CURRENCY;
+
+            if (high.compareAndSet(current, new Bid(bidder, amount, false))) {
+                if (!raise && current.bidder != UserTable.NO_USER) users.depositCurrency(current.bidder, current.amount);
+                return BidResult.HIGHEST;
+            }
+
+            // Someone else got in first (or it closed), give it back and look again
+            users.depositCurrency(bidder, escrow);
+        }
+    }
+
+    /*
+        Stops the bidding. The winner's currency stays spent. Returns the winning bid, with a bidder of
+        UserTable.NO_USER if nobody bid.
+     */
+    Bid close() {
+        while (true) {
+            Bid current = high.get();
+            if (current.closed) return current;
+            Bid closed = new Bid(current.bidder, current.amount, true);
+            if (high.compareAndSet(current, closed)) return closed;
+        }
+    }
+
+    /*
+        Stops the bidding and gives the high bidder their currency back.
+     */
+    Bid cancel() {
+        while (true) {
+            Bid current = high.get();
+            if (current.closed) return current;
+            Bid closed = new Bid(UserTable.NO_USER, 0, true);
+            if (high.compareAndSet(current, closed)) {
+                if (current.bidder != UserTable.NO_USER) users.depositCurrency(current.bidder, current.amount);
+                return current;
+            }
+        }
+    }
+
+    Bid highBid() {
+        return high.get();
+    }
+
+    boolean isOpen() {
+        return !high.get().closed;
+    }
+
+    String getItem() {
+        return item;
+    }
+
+    int getMinimum() {
+        return minimum;
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable set of blacklisted words that can be checked against a slice of a message without copying it. The
+ * String hash codes of every word are kept sorted, so a token only gets compared character by character when its
+ * hash is already known to match one of the words.
+ *
+ * Adding or removing a word creates a new Blacklist, so readers never need a lock.
+ */
+final class Blacklist {
+
+    static final Blacklist EMPTY = new Blacklist(Collections.<String>emptySet());
+
+    private final Set<String> words;
+    private final String[] wordArray;
+    private final int[] hashes;
+
+    private Blacklist(Set<String> words) {
+        this.words = Collections.unmodifiableSet(words);
+        wordArray = words.toArray(new String[words.size()]);
+        hashes = new int[wordArray.length];
+        for (int i = 0; i < wordArray.length; i++) {
+            hashes[i] = wordArray[i].hashCode();
+        }
+        Arrays.sort(hashes);
+    }
+
+    Blacklist with(String word) {
+        if (words.contains(word)) return this;
+        Set<String> copy = new HashSet<>(words);
+        copy.add(word);
+        return new Blacklist(copy);
+    }
+
+    Blacklist without(String word) {
+        if (!words.contains(word)) return this;
+        Set<String> copy = new HashSet<>(words);
+        copy.remove(word);
+        return new Blacklist(copy);
+    }
+
+    boolean isEmpty() {
+        return wordArray.length == 0;
+    }
+
+    Set<String> words() {
+        return words;
+    }
+
+    /*
+        Checks message[start, end) against the list. The hash must be the String.hashCode() of that slice.
+     */
+    boolean contains(String message, int start, int end, int hash) {
+        if (Arrays.binarySearch(hashes, hash) < 0) return false;
+
+        int length = end - start;
+        for (String w : wordArray) {
+            if (w.length() == length && w.hashCode() == hash && message.regionMatches(start, w, 0, length))
+                return true;
+        }
+        return false;
+    }
+}
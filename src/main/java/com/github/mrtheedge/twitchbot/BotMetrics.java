@@ -0,0 +1,180 @@
+package com.github.mrtheedge.twitchbot;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time goes while handling chat, for every channel the bot is in. Each stage of handling a message records
+ * into its own LatencyHistogram, and the totals are LongAdders, so recording costs a few nanoseconds and never takes a
+ * lock. Rates are worked out from samples of the totals that sample() takes once a second.
+ *
+ * The stages are user bookkeeping, the spam check (split by what it decided), command parsing, command execution
+ * and the time a line waits in the OutboundScheduler before it goes out.
+ */
+public class BotMetrics implements BotMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.github.mrtheedge.twitchbot:type=BotMetrics";
+
+    private static final int RATE_SAMPLES = 11; // Rates are over the last 10 seconds
+
+    final LatencyHistogram bookkeeping = new LatencyHistogram();
+    final LatencyHistogram commandParse = new LatencyHistogram();
+    final LatencyHistogram commandExecution = new LatencyHistogram();
+    final LatencyHistogram outbound = new LatencyHistogram();
+    private final Map<SpamType, LatencyHistogram> spamCheck = new EnumMap<>(SpamType.class);
+
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder strikes = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private final long[][] samples = new long[RATE_SAMPLES][3]; // [time, messages, commands], only used in sample()
+    private int samplesTaken;
+    private volatile double messagesPerSecond;
+    private volatile double commandsPerSecond;
+    private volatile boolean registered;
+
+    public BotMetrics() {
+        for (SpamType type : SpamType.values()) spamCheck.put(type, new LatencyHistogram());
+    }
+
+    /*
+        Makes the metrics visible over JMX (eg. in JConsole or VisualVM).
+     */
+    public void register() throws JMException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (InstanceAlreadyExistsException ex) {
+            // Another controller in this JVM got there first, theirs are the ones shown
+        }
+    }
+
+    public void unregister() {
+        if (!registered) return; // Never ours to take down
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+            registered = false;
+        } catch (JMException ex) {
+            // Already gone
+        }
+    }
+
+    void message() {
+        messages.increment();
+    }
+
+    void command() {
+        commands.increment();
+    }
+
+    void strike() {
+        strikes.increment();
+    }
+
+    void timeout() {
+        timeouts.increment();
+    }
+
+    void spamCheck(SpamType result, long nanos) {
+        spamCheck.get(result).record(nanos);
+    }
+
+    /*
+        Updates the rates. Meant to be called about once a second, from one thread.
+     */
+    synchronized void sample(long nanoTime) {
+        long[] newest = samples[samplesTaken % RATE_SAMPLES];
+        newest[0] = nanoTime;
+        newest[1] = messages.sum();
+        newest[2] = commands.sum();
+        samplesTaken++;
+
+        if (samplesTaken < 2) return;
+        long[] oldest = samples[Math.max(0, samplesTaken - RATE_SAMPLES) % RATE_SAMPLES];
+        double seconds = (newest[0] - oldest[0]) / 1e9;
+        messagesPerSecond = (newest[1] - oldest[1]) / seconds;
+        commandsPerSecond = (newest[2] - oldest[2]) / seconds;
+    }
+
+    @Override
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    @Override
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    @Override
+    public double getCommandsPerSecond() {
+        return commandsPerSecond;
+    }
+
+    @Override
+    public long getStrikes() {
+        return strikes.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public Map<String, LatencySummary> getLatencies() {
+        Map<String, LatencySummary> latencies = new LinkedHashMap<>();
+        latencies.put("bookkeeping", new LatencySummary(bookkeeping.snapshot()));
+        for (Map.Entry<SpamType, LatencyHistogram> e : spamCheck.entrySet()) {
+            latencies.put("spam_" + e.getKey().name().toLowerCase(), new LatencySummary(e.getValue().snapshot()));
+        }
+        latencies.put("command_parse", new LatencySummary(commandParse.snapshot()));
+        latencies.put("command_execution", new LatencySummary(commandExecution.snapshot()));
+        latencies.put("outbound", new LatencySummary(outbound.snapshot()));
+        return latencies;
+    }
+
+    /*
+        Everything in a plain text format, one value per line, in the style Prometheus can scrape.
+     */
+    public String toText() {
+        StringBuilder out = new StringBuilder(4096);
+        line(out, "twitchbot_messages_total", "", getMessages());
+        line(out, "twitchbot_messages_per_second", "", getMessagesPerSecond());
+        line(out, "twitchbot_commands_total", "", getCommands());
+        line(out, "twitchbot_commands_per_second", "", getCommandsPerSecond());
+        line(out, "twitchbot_strikes_total", "", getStrikes());
+        line(out, "twitchbot_timeouts_total", "", getTimeouts());
+
+        for (Map.Entry<String, LatencySummary> e : getLatencies().entrySet()) {
+            String stage = "stage=\"" + e.getKey() + "\"";
+            LatencySummary s = e.getValue();
+            line(out, "twitchbot_latency_count", stage, s.getCount());
+            line(out, "twitchbot_latency_mean_micros", stage, s.getMeanMicros());
+            line(out, "twitchbot_latency_micros", stage + ",quantile=\"0.5\"", s.getP50Micros());
+            line(out, "twitchbot_latency_micros", stage + ",quantile=\"0.9\"", s.getP90Micros());
+            line(out, "twitchbot_latency_micros", stage + ",quantile=\"0.99\"", s.getP99Micros());
+            line(out, "twitchbot_latency_micros", stage + ",quantile=\"0.999\"", s.getP999Micros());
+            line(out, "twitchbot_latency_max_micros", stage, s.getMaxMicros());
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Map;
+
+/**
+ * What BotMetrics shows over JMX, eg. in JConsole or VisualVM under com.github.mrtheedge.twitchbot.
+ */
+public interface BotMetricsMXBean {
+
+    long getMessages();
+
+    double getMessagesPerSecond();
+
+    long getCommands();
+
+    double getCommandsPerSecond();
+
+    long getStrikes();
+
+    long getTimeouts();
+
+    /*
+        Latency of each stage of handling a message, keyed by stage name.
+     */
+    Map<String, LatencySummary> getLatencies();
+
+}
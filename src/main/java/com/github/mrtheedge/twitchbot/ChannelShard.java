@@ -0,0 +1,179 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.DataStoreException;
+import com.github.mrtheedge.twitchbot.exceptions.NoSuchCommandException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything the bot keeps for one channel: its spam filter, its users and its commands. The controller keeps one of
+ * these per channel and hands each event to the right one, so channels never share state and one process can serve
+ * as many channels as it has cores for.
+ */
+public class ChannelShard {
+
+    /*
+        Opens the saved user data for a channel. Returning null means the channel's data is kept in memory only.
+     */
+    public interface StoreFactory {
+        UserDataStore open(String channel) throws DataStoreException;
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String channel;
+    private final SpamFilter spamFilter;
+    private final UserDataManager userDataManager;
+    private final UserDataStore userDataStore;
+    private final CommandManager commandManager;
+    private final ChatTimers timers;
+    private final CurrencyPayout payout;
+    private final OutboundScheduler outbound;
+    private final BotMetrics metrics;
+
+    ChannelShard(String channel, OutboundScheduler outbound, TimerWheel wheel, StoreFactory storeFactory,
+                 BotMetrics metrics) {
+        this.channel = channel;
+        this.outbound = outbound;
+        this.metrics = metrics;
+
+        UserDataStore store = null;
+        UserDataManager manager;
+        try {
+            store = storeFactory == null ? null : storeFactory.open(channel);
+            long start = System.currentTimeMillis();
+            manager = store == null ? new UserDataManager() : new UserDataManager(store);
+            logger.info("Loaded saved users for " + channel + " in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (DataStoreException ex) {
+            logger.error("Could not load saved users for " + channel + ", user data will not be saved this session", ex);
+            closeQuietly(store);
+            store = null;
+            manager = new UserDataManager();
+        }
+        userDataStore = store;
+        userDataManager = manager;
+
+        spamFilter = new SpamFilter(SpamFilterConfig.DEFAULT, wheel);
+        commandManager = new CommandManager();
+        commandManager.setDataSource(userDataManager);
+        timers = new ChatTimers(channel, wheel, outbound);
+        commandManager.setTimers(timers);
+        commandManager.setMetrics(metrics);
+        payout = new CurrencyPayout(userDataManager, wheel);
+        payout.start();
+        spamFilter.registerCallback((u, t) -> {
+            metrics.timeout();
+            outbound.timeout(channel, u, t);
+        });
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public SpamFilter getSpamFilter() {
+        return spamFilter;
+    }
+
+    public UserDataManager getUserDataManager() {
+        return userDataManager;
+    }
+
+    public CommandManager getCommandManager() {
+        return commandManager;
+    }
+
+    public CurrencyPayout getPayout() {
+        return payout;
+    }
+
+    void handleMessage(MessageView message) {
+        String nick = message.nick();
+        metrics.message();
+        long start = System.nanoTime();
+        userDataManager.newMessage(nick); // Add the latest messages timestamp for the user
+        timers.lineSeen();
+        metrics.bookkeeping.record(System.nanoTime() - start);
+
+        String commandResponse = "";
+        if (message.textStartsWith('!')){
+            try {
+                // Skips the '!' itself
+                commandResponse = commandManager.parseCommand(nick, message.permission(), message.text());
+            } catch (NoSuchCommandException ex){
+                logger.error("No Such Command: " + message.text());
+                ex.printStackTrace();
+            }
+        }
+
+        if (commandResponse.equals("")){
+            // Either no command or the command was invalid. Prevents bypassing the spam filter with a '!'
+            start = System.nanoTime();
+            SpamType type = spamFilter.isSpam(message);
+            metrics.spamCheck(type, System.nanoTime() - start);
+            if (type != SpamType.NONE) metrics.strike();
+        } else {
+            outbound.sendMessage(channel, commandResponse);
+        }
+    }
+
+    void join(String nick) {
+        userDataManager.join(nick);
+    }
+
+    /*
+        Joins everyone already in chat, from a chatters list at the URL. The joins run on the pipeline's workers, one
+        batch per worker, like any other join; this waits for them and returns how many users joined.
+     */
+    int loadChatters(URL url, EventPipeline pipeline) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        List<String> names = ChattersLoader.fetch(url);
+
+        List<List<String>> batches = pipeline.partition(channel, names);
+        CountDownLatch done = new CountDownLatch(batches.size());
+        AtomicInteger joined = new AtomicInteger();
+        for (List<String> batch : batches) {
+            Runnable task = () -> {
+                try {
+                    joined.addAndGet(userDataManager.joinAll(batch));
+                } finally {
+                    done.countDown();
+                }
+            };
+            if (!pipeline.submit(channel, batch.get(0), task, false)) {
+                logger.warn("Could not queue " + batch.size() + " chatters for " + channel + ", they'll be added as they chat");
+                done.countDown();
+            }
+        }
+        done.await();
+
+        logger.info("Loaded " + names.size() + " chatters for " + channel + " (" + joined + " new to chat) in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return joined.get();
+    }
+
+    void part(String nick) {
+        userDataManager.part(nick);
+    }
+
+    void close() {
+        timers.cancelAll();
+        payout.stop();
+        closeQuietly(userDataStore);
+    }
+
+    private void closeQuietly(UserDataStore store) {
+        if (store == null) return;
+        try {
+            store.close();
+        } catch (DataStoreException ex) {
+            logger.error("Could not save users for " + channel, ex);
+        }
+    }
+}
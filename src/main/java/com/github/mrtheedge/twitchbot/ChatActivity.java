@@ -0,0 +1,105 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Tracks who is in chat and who has been talking recently, by user id. The in-chat set is a concurrent set, so joins
+ * and parts are O(1) and never wait on each other. Recent activity is a ring with one bucket per minute; each user
+ * is added to the bucket for the minute of their message at most once, so asking who talked in the last N minutes
+ * only looks at the users who actually did instead of everyone in chat.
+ *
+ * Times are epoch seconds, the same as UserTable.
+ */
+final class ChatActivity {
+
+    static final int MAX_WINDOW_MINUTES = 60;
+    private static final int BUCKETS = MAX_WINDOW_MINUTES + 1; // The oldest minute of a window is only partly inside it
+
+    private final UserTable users;
+    private final Set<Integer> inChat = ConcurrentHashMap.newKeySet();
+    private final AtomicReferenceArray<Bucket> ring = new AtomicReferenceArray<>(BUCKETS);
+
+    ChatActivity(UserTable users) {
+        this.users = users;
+        for (int i = 0; i < BUCKETS; i++) ring.set(i, new Bucket(-1));
+    }
+
+    /*
+        Returns false if the user was already in chat.
+     */
+    boolean join(int id) {
+        return inChat.add(id);
+    }
+
+    void part(int id) {
+        inChat.remove(id);
+    }
+
+    int inChatCount() {
+        return inChat.size();
+    }
+
+    void forEachInChat(IntConsumer consumer) {
+        for (Integer id : inChat) consumer.accept(id);
+    }
+
+    /*
+        Records a message sent at the given time, by a user whose previous message was at previousMessageAt.
+     */
+    void message(int id, long previousMessageAt, long now) {
+        long minute = now / 60;
+        if (previousMessageAt != 0 && previousMessageAt / 60 == minute) return; // Already in this minute's bucket
+
+        bucketFor(minute).ids.add(id);
+    }
+
+    /*
+        Calls the consumer once for each user in chat whose last message was less than the given number of seconds
+        before now.
+     */
+    void forEachActive(long seconds, long now, IntConsumer consumer) {
+        if (seconds > MAX_WINDOW_MINUTES * 60L) {
+            // Older than the ring remembers, fall back to checking everyone in chat
+            for (Integer id : inChat) {
+                if (now - users.lastMessageAt(id) < seconds) consumer.accept(id);
+            }
+            return;
+        }
+
+        long newest = now / 60;
+        long oldest = (now - seconds + 1) / 60;
+        for (long minute = newest; minute >= oldest && minute >= 0; minute--) {
+            Bucket bucket = ring.get((int) (minute % BUCKETS));
+            if (bucket.minute != minute) continue;
+
+            for (Integer id : bucket.ids) {
+                long lastMessageAt = users.lastMessageAt(id);
+                // Only count a user in the bucket of their latest message, so nobody is reported twice
+                if (lastMessageAt / 60 == minute && now - lastMessageAt < seconds && inChat.contains(id))
+                    consumer.accept(id);
+            }
+        }
+    }
+
+    private Bucket bucketFor(long minute) {
+        int slot = (int) (minute % BUCKETS);
+        while (true) {
+            Bucket bucket = ring.get(slot);
+            if (bucket.minute >= minute) return bucket; // An older minute racing a rollover just joins the newer one
+            Bucket fresh = new Bucket(minute);
+            if (ring.compareAndSet(slot, bucket, fresh)) return fresh;
+        }
+    }
+
+    private static final class Bucket {
+        final long minute;
+        final Set<Integer> ids = ConcurrentHashMap.newKeySet();
+
+        Bucket(long minute) {
+            this.minute = minute;
+        }
+    }
+}
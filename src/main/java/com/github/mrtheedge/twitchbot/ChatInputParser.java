@@ -0,0 +1,34 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.pircbotx.InputParser;
+import org.pircbotx.PircBotX;
+import org.pircbotx.exception.IrcException;
+
+import java.io.IOException;
+import java.util.function.Predicate;
+
+/**
+ * Takes chat messages off the connection before PircBotX parses them. For every message PircBotX would build a map of
+ * all the tags, look up or create a User, log the line and dispatch an event on its own thread pool; chat is nearly
+ * every line the bot reads, so it gets a MessageView over the raw line instead and goes straight to the handler.
+ *
+ * Everything else (and any message the handler turns down, or a /me) goes to PircBotX as usual.
+ */
+final class ChatInputParser extends InputParser {
+
+    private final Predicate<MessageView> handler;
+
+    /*
+        The handler returns false for messages it doesn't want, which PircBotX then handles.
+     */
+    ChatInputParser(PircBotX bot, Predicate<MessageView> handler) {
+        super(bot);
+        this.handler = handler;
+    }
+
+    @Override
+    public void handleLine(String line) throws IOException, IrcException {
+        MessageView message = MessageView.parse(line);
+        if (message == null || message.isAction() || !handler.test(message)) super.handleLine(line);
+    }
+}
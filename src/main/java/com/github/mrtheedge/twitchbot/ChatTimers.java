@@ -0,0 +1,106 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The repeating messages for one channel, like reminders to follow or links to socials. Each timer posts its message
+ * every so many minutes, but only if enough chat lines have gone by since it last posted, so a quiet chat isn't
+ * flooded with nothing but timers. All channels share one TimerWheel to run them, and the messages go out through
+ * the OutboundScheduler like everything else the bot says.
+ */
+final class ChatTimers {
+
+    static final int DEFAULT_MIN_LINES = 5;
+
+    private final String channel;
+    private final TimerWheel wheel;
+    private final OutboundScheduler outbound;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final LongAdder linesSeen = new LongAdder();
+
+    ChatTimers(String channel, TimerWheel wheel, OutboundScheduler outbound) {
+        this.channel = channel;
+        this.wheel = wheel;
+        this.outbound = outbound;
+    }
+
+    /*
+        Returns false if there is already a timer with the name.
+     */
+    boolean add(String name, long minutes, int minLines, String message) {
+        if (minutes < 1) throw new IllegalArgumentException("Timers can't repeat more than once a minute");
+
+        Timer timer = new Timer(message, TimeUnit.MINUTES.toNanos(minutes), minLines, linesSeen.sum());
+        if (timers.putIfAbsent(name, timer) != null) return false;
+        timer.schedule();
+        return true;
+    }
+
+    boolean remove(String name) {
+        Timer timer = timers.remove(name);
+        if (timer == null) return false;
+        timer.cancel();
+        return true;
+    }
+
+    List<String> names() {
+        List<String> names = new ArrayList<>(timers.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /*
+        Counts a chat line towards the activity every timer needs before it posts again.
+     */
+    void lineSeen() {
+        linesSeen.increment();
+    }
+
+    void cancelAll() {
+        for (String name : timers.keySet()) remove(name);
+    }
+
+    private final class Timer implements Runnable {
+        final String message;
+        final long intervalNanos;
+        final int minLines;
+        volatile long linesAtLastPost;
+        volatile TimerWheel.Timeout next;
+        volatile boolean cancelled;
+
+        Timer(String message, long intervalNanos, int minLines, long linesAtLastPost) {
+            this.message = message;
+            this.intervalNanos = intervalNanos;
+            this.minLines = minLines;
+            this.linesAtLastPost = linesAtLastPost;
+        }
+
+        void schedule() {
+            next = wheel.schedule(this, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void cancel() {
+            cancelled = true;
+            TimerWheel.Timeout timeout = next;
+            if (timeout != null) timeout.cancel();
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return; // Removed while it was being rescheduled
+
+            long lines = linesSeen.sum();
+            if (lines - linesAtLastPost >= minLines) {
+                linesAtLastPost = lines;
+                outbound.sendMessage(channel, message);
+            }
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the list of everyone in a channel's chat, so the bot knows about the viewers who were already there before it
+ * joined instead of waiting for a JOIN from each of them. The list is in the format of Twitch's chatters endpoint:
+ *
+ *     {"chatter_count": 2, "chatters": {"moderators": ["a_mod"], "viewers": ["a_viewer"], ...}}
+ *
+ * It can come from any URL Java can open, so a file: URL to a saved copy works as well as an HTTP endpoint. The
+ * reply is streamed straight into a list of names, it is never held as a tree of JSON objects.
+ */
+final class ChattersLoader {
+
+    static final String TWITCH_URL = "https://tmi.twitch.tv/group/user/%s/chatters";
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    private ChattersLoader() {
+    }
+
+    /*
+        The URL for a channel, from a template with %s where the channel name (without the #) goes.
+     */
+    static URL urlFor(String template, String channel) throws IOException {
+        String name = channel.startsWith("#") ? channel.substring(1) : channel;
+        return new URL(String.format(template, name.toLowerCase()));
+    }
+
+    static List<String> fetch(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        try (Reader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            return parse(in);
+        }
+    }
+
+    /*
+        Every name in every group (moderators, viewers, ...), in the order they appear.
+     */
+    static List<String> parse(Reader in) throws IOException {
+        List<String> names = new ArrayList<>();
+        JsonReader reader = new JsonReader(in);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("chatters")) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                reader.nextName(); // The group doesn't matter here, mods get their permissions from the message tags
+                if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) names.add(reader.nextString().toLowerCase());
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return names;
+    }
+}
@@ -4,6 +4,8 @@ import com.github.mrtheedge.twitchbot.exceptions.CommandOnCooldownException;
 import com.github.mrtheedge.twitchbot.exceptions.InsufficientPermissionException;
 
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by E.J. Schroeder on 11/15/2016.
@@ -16,32 +18,33 @@ public class Command {
     protected String name;
     protected PermissionLevel permissionLevel;
     protected String content;
+    protected CommandTemplate template;     // Content compiled once, so calls don't have to re-parse it
     protected int cooldown;
     protected int pointCost;
 
-    private long lastUseTimestamp;
-    private int useCount;
+    // Commands are called from every event worker at once, so a use is claimed with a CAS on the timestamp
+    private final AtomicLong lastUseTimestamp = new AtomicLong();
+    private final AtomicInteger useCount = new AtomicInteger();
 
     public Command(String name, PermissionLevel permissionLevel, String content) {
         this.name = name;
         this.permissionLevel = permissionLevel;
         this.content = content;
+        this.template = CommandTemplate.compile(content);
         this.cooldown = 0;
         this.pointCost = 0;
-
-        lastUseTimestamp = 0;
-        useCount = 0;
     }
 
     public boolean isCallableBy(PermissionLevel level) {
         return level.ordinal() >= permissionLevel.ordinal();
     }
 
-    public String callCommand(PermissionLevel level) throws InsufficientPermissionException, CommandOnCooldownException {
+    String callCommand(PermissionLevel level, TemplateContext context) throws InsufficientPermissionException, CommandOnCooldownException {
 
         long currentTime = Instant.now().getEpochSecond();
+        long lastUse = lastUseTimestamp.get();
 
-        if ( !isCallableAt(currentTime) ){
+        if ( !isCallableAt(currentTime, lastUse) ){
             throw new CommandOnCooldownException();
         }
 
@@ -49,18 +52,42 @@ public class Command {
             throw new InsufficientPermissionException();
         }
 
-        lastUseTimestamp = currentTime;
-        useCount++;
+        // Only one of several callers racing for the same cooldown gets it
+        if (!lastUseTimestamp.compareAndSet(lastUse, currentTime)){
+            throw new CommandOnCooldownException();
+        }
+        useCount.incrementAndGet();
+
+        return template.render(context);
+    }
+
+    public String getName(){
+        return name;
+    }
 
+    public String getContent(){
         return content;
     }
 
+    public void setContent(String content){
+        this.template = CommandTemplate.compile(content);
+        this.content = content;
+    }
+
+    public PermissionLevel getPermissionLevel(){
+        return permissionLevel;
+    }
+
+    public void setPermissionLevel(PermissionLevel level){
+        permissionLevel = level;
+    }
+
     public boolean isOffCooldown(){
-        return isCallableAt(Instant.now().getEpochSecond());
+        return isCallableAt(Instant.now().getEpochSecond(), lastUseTimestamp.get());
     }
 
-    private boolean isCallableAt(long time){
-        return time - lastUseTimestamp > cooldown;
+    private boolean isCallableAt(long time, long lastUse){
+        return time - lastUse > cooldown;
     }
 
     public void setCooldown(int seconds){
@@ -74,7 +101,7 @@ public class Command {
     }
 
     public int getUseCount(){
-        return useCount;
+        return useCount.get();
     }
 
     public int getUseCost(){
@@ -82,7 +109,3 @@ public class Command {
     }
 
 }
-
-enum PermissionLevel {
-    None, Subscriber, Mod, Broadcaster
-}
@@ -1,11 +1,14 @@
 package com.github.mrtheedge.twitchbot;
 
+import com.github.mrtheedge.twitchbot.exceptions.CommandOnCooldownException;
+import com.github.mrtheedge.twitchbot.exceptions.InsufficientPermissionException;
 import com.github.mrtheedge.twitchbot.exceptions.NoSuchCommandException;
-import com.google.common.base.Splitter;
+import com.github.mrtheedge.twitchbot.exceptions.NoSuchUserException;
 import com.google.common.collect.ImmutableMap;
 
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Created by E.J. Schroeder on 11/25/2016.
@@ -14,131 +17,421 @@ import java.util.regex.Pattern;
  */
 public class CommandManager {
 
+    private static final int MAX_WINNERS_PER_DRAW = 10; // More names than that won't fit in one chat message
+
     private Map<String, Command> commandMap;
+    private Map<String, BuiltIn> builtIns;
+    private volatile DispatchTable<Dispatch> dispatchTable;    // Built-ins and custom commands, rebuilt on changes
     private UserDataManager dataSource;
-    private final Pattern VARIABLE_PATTERN = Pattern.compile("<(\\w+)(\\(.*\\))?>");
+    private ChatTimers timers;
+    private BotMetrics metrics;
+    private volatile Poll poll;             // The current or last poll, read on every vote
+    private String pollTitle;               // The poll being set up with !poll, not open yet
+    private final List<String> pollOptions = new ArrayList<>();
+    private volatile Raffle raffle;
+    private volatile Auction auction;
 
     public CommandManager() {
-        commandMap = new HashMap<>();
+        commandMap = new ConcurrentHashMap<>();
+
+        /* Built-ins:
+           - Add        -> !addcom {name} [permissions] {content}
+           - Edit       -> !editcom {name} [permissions] {content}
+           - Delete     -> !delcom {name}
+           - Raffle     -> !raffle [open [weighted]|close|draw [count]]
+           - Auction    -> !auction [amount|open [minimum] {item}|close|cancel]
+           - Blacklist  -> !blacklist {add|del} {word}
+           - Poll       -> !poll {title|option|open|close|results} [content]
+           - Vote       -> !vote {number}
+           - Timers     -> !timers {add|del|list} {name} [minutes] [min lines] [Content content content]
+         */
+        builtIns = new HashMap<>();
+        builtIns.put("addcom", new BuiltIn(PermissionLevel.Mod, (nick, level, args) -> parseAddcom(args)));
+        builtIns.put("editcom", new BuiltIn(PermissionLevel.Mod, (nick, level, args) -> parseEditcom(args)));
+        builtIns.put("delcom", new BuiltIn(PermissionLevel.Mod, (nick, level, args) -> parseDelcom(args)));
+        builtIns.put("raffle", new BuiltIn(PermissionLevel.None, this::parseRaffle));
+        builtIns.put("auction", new BuiltIn(PermissionLevel.None, this::parseAuction));
+        builtIns.put("blacklist", new BuiltIn(PermissionLevel.None, (nick, level, args) -> parseBlacklist(args)));
+        builtIns.put("poll", new BuiltIn(PermissionLevel.Mod, (nick, level, args) -> parsePoll(args)));
+        builtIns.put("vote", new BuiltIn(PermissionLevel.None, (nick, level, args) -> parseVote(nick, args)));
+        builtIns.put("timers", new BuiltIn(PermissionLevel.Mod, (nick, level, args) -> parseTimers(args)));
 
+        rebuildDispatchTable();
     }
 
     public void setDataSource(UserDataManager source){
         dataSource = source;
     }
 
+    void setTimers(ChatTimers timers){
+        this.timers = timers;
+    }
+
+    void setMetrics(BotMetrics metrics){
+        this.metrics = metrics;
+    }
+
     /*
-        First word of the string will be the command name
-        It should be passed without the ! attached to the front
+        First word of the string will be the command name. A leading '!' is skipped, so the message can be passed
+        straight from chat without trimming it first.
      */
-    public String parseCommand(String line, ImmutableMap<String, String> tags) throws NoSuchCommandException {
-        Iterator<String> splitLine = Splitter.on(" ").omitEmptyStrings().split(line).iterator();
+    public String parseCommand(String nick, String line, ImmutableMap<String, String> tags) throws NoSuchCommandException {
+        return parseCommand(nick, permissionOf(tags), line);
+    }
 
-        String commandName;
-        if (splitLine.hasNext()){
-            commandName = splitLine.next();
-        } else {
-            throw new NoSuchCommandException();
-        }
+    String parseCommand(String nick, PermissionLevel level, String line) throws NoSuchCommandException {
+        BotMetrics metrics = this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
 
-        List<String> args = new ArrayList<>();
-        splitLine.forEachRemaining(args::add);
+        CommandTokens tokens = CommandTokens.of(line, line.startsWith("!") ? 1 : 0);
+        if (tokens.isEmpty()) throw new NoSuchCommandException();
 
-        String output;
+        Dispatch target = dispatchTable.get(line, tokens.nameStart(), tokens.nameEnd(), tokens.nameHash());
+        if (target == null) return ""; // Not a command, nothing has been allocated
 
-        /*
-            https://docs.oracle.com/javase/7/docs/api/java/util/regex/Matcher.html#appendReplacement(java.lang.StringBuffer,%20java.lang.String)
-            For replacing variables
-        */
+        String output;
+        if (metrics != null) {
+            long parsed = System.nanoTime();
+            metrics.command();
+            metrics.commandParse.record(parsed - start);
+            start = parsed;
+        }
 
-        if (commandMap.containsKey(commandName)){
-            Command command = commandMap.get(commandName);
+        if (target.command != null){
             // Custom command was found
-
-            //output = command.callCommand();
+            Command command = target.command;
+            try {
+                output = command.callCommand(level, new TemplateContext(nick, tokens.args(), dataSource, command));
+            } catch (InsufficientPermissionException | CommandOnCooldownException ex) {
+                output = ""; // Just ignore it, answering would only add to the spam
+            }
         } else {
-            // Look for built in command
-
-            /* Built-ins:
-               - Add        -> !addcom {name} [permissions] {content}
-               - Edit       -> !editcom {name}
-               - Delete     -> !delcom
-               - Raffle     -> !raffle
-               - Auction    -> !auction
-               - Blacklist  -> !blacklist {add|del} {word}
-               - Poll       -> !poll [title|option|open] {content}
-               - Vote       -> !vote {number}
-               - Timers      -> !timers {add|del} {name} [minutes] [Content content content]
-             */
-
-            output = checkForBuiltIn(commandName, args);
-
-            // This is not done...
-        }
-
-        return "";
-    }
-
-    private String checkForBuiltIn(String commandName, List<String> args) {
-
-        switch (commandName){
-            case "addcom":
-                return parseAddcom(args);
-            case "editcom":
-                return parseEditcom(args);
-            case "delcom":
-                return parseDelcom(args);
-            case "raffle":
-                return parseRaffle(args);
-            case "auction":
-                return parseAuction(args);
-            case "blacklist":
-                return parseBlacklist(args);
-            case "poll":
-                return parsePoll(args);
-            case "vote":
-                return parseVote(args);
-            case "timers":
-                return parseTimers(args);
-            default:
-                return "";
+            BuiltIn builtIn = target.builtIn;
+            output = level.ordinal() >= builtIn.level.ordinal() ? builtIn.handler.run(nick, level, tokens.args()) : "";
         }
+
+        if (metrics != null) metrics.commandExecution.record(System.nanoTime() - start);
+        return output == null ? "" : output;
+    }
+
+    public Command getCommand(String name){
+        return commandMap.get(name);
+    }
+
+    /*
+        The level the badges give, or if they give none, the mod/subscriber tags Twitch also sends with each message.
+     */
+    static PermissionLevel permissionOf(Map<String, String> tags) {
+        if (tags == null) return PermissionLevel.None;
+
+        String badges = tags.get("badges");
+        PermissionLevel level = badges == null ? PermissionLevel.None
+                : MessageView.permissionOfBadges(badges, 0, badges.length());
+        if (level != PermissionLevel.None) return level;
+        if ("1".equals(tags.get("mod"))) return PermissionLevel.Mod;
+        if ("1".equals(tags.get("subscriber"))) return PermissionLevel.Subscriber;
+        return PermissionLevel.None;
     }
 
     private String parseTimers(List<String> args) {
-        return null;
+        if (timers == null) return null;
+        if (args.isEmpty()) return "Usage: !timers {add|del|list} {name} [minutes] [min lines] {content}";
+
+        switch (args.get(0).toLowerCase()) {
+            case "list":
+                List<String> names = timers.names();
+                return names.isEmpty() ? "There are no timers." : "Timers: " + String.join(", ", names);
+            case "del":
+                if (args.size() < 2) return "Usage: !timers del {name}";
+                return timers.remove(args.get(1)) ? "Timer " + args.get(1) + " removed."
+                        : "There is no timer " + args.get(1) + ".";
+            case "add":
+                if (args.size() < 4) return "Usage: !timers add {name} {minutes} [min lines] {content}";
+
+                String name = args.get(1);
+                Integer minutes = parseCount(args.get(2));
+                if (minutes == null || minutes < 1) return "Timers need a number of minutes of at least 1.";
+
+                // The minimum lines are optional, anything else is where the content starts
+                Integer minLines = args.size() > 4 ? parseCount(args.get(3)) : null;
+                int contentStart = minLines == null ? 3 : 4;
+                int lines = minLines == null ? ChatTimers.DEFAULT_MIN_LINES : minLines;
+
+                if (!timers.add(name, minutes, lines, joinFrom(args, contentStart))) return "Timer " + name + " already exists.";
+                return "Timer " + name + " added, every " + minutes + " minutes after at least " + lines + " lines of chat.";
+            default:
+                return "Usage: !timers {add|del|list} {name} [minutes] [min lines] {content}";
+        }
     }
 
-    private String parseVote(List<String> args) {
+    /*
+        Counted votes get no answer, on a big channel that would be thousands of lines. Anything that isn't a vote
+        for an option of an open poll is quietly ignored too.
+     */
+    private String parseVote(String nick, List<String> args) {
+        Poll poll = this.poll;
+        if (poll == null || !poll.isOpen() || dataSource == null) return null;
+        if (args.isEmpty()) return poll.describeOptions() + ". Vote with !vote {number}";
+
+        Integer option = parseCount(args.get(0));
+        if (option == null) return null;
+        try {
+            poll.vote(dataSource.idOf(nick), option);
+        } catch (NoSuchUserException ex) {
+            // Everyone who talks is added before their command runs, so this is someone we can't count anyway
+        }
         return null;
     }
 
-    private String parsePoll(List<String> args) {
-        return null;
+    private synchronized String parsePoll(List<String> args) {
+        if (args.isEmpty()) return "Usage: !poll {title|option|open|close|results} [content]";
+
+        Poll current = poll;
+        switch (args.get(0).toLowerCase()) {
+            case "title":
+                if (args.size() < 2) return "Usage: !poll title {content}";
+                pollTitle = joinFrom(args, 1);
+                pollOptions.clear();
+                return "New poll: " + pollTitle + ". Add options with !poll option {content}.";
+            case "option":
+                if (pollTitle == null) return "Start a poll with !poll title {content} first.";
+                if (args.size() < 2) return "Usage: !poll option {content}";
+                pollOptions.add(joinFrom(args, 1));
+                return "Option " + pollOptions.size() + " added: " + pollOptions.get(pollOptions.size() - 1) + ".";
+            case "open":
+                if (pollTitle == null || pollOptions.size() < 2) return "A poll needs a title and at least two options.";
+                if (current != null) current.close();
+                poll = new Poll(pollTitle, pollOptions);
+                pollTitle = null;
+                pollOptions.clear();
+                return "Poll open! " + poll.describeOptions() + ". Vote with !vote {number}";
+            case "close":
+                if (current == null || !current.isOpen()) return "There is no open poll.";
+                current.close();
+                return "Poll closed! " + current.describeResults();
+            case "results":
+                if (current == null) return "There hasn't been a poll yet.";
+                return current.describeResults();
+            default:
+                return "Usage: !poll {title|option|open|close|results} [content]";
+        }
     }
 
     private String parseBlacklist(List<String> args) {
         return null;
     }
 
-    private String parseAuction(List<String> args) {
+    /*
+        !auction on its own shows the high bid, with an amount it's a bid. Bids get no answer, there can be hundreds.
+     */
+    private String parseAuction(String nick, PermissionLevel level, List<String> args) {
+        if (dataSource == null) return null;
+
+        Auction auction = this.auction;
+        if (args.isEmpty()) {
+            if (auction == null) return null;
+            if (!auction.isOpen()) return "The auction for " + auction.getItem() + " is over.";
+            Auction.Bid high = auction.highBid();
+            if (high.bidder == UserTable.NO_USER)
+                return "Auction for " + auction.getItem() + ": no bids yet, bidding starts at " + auction.getMinimum() + ".";
+            return "Auction for " + auction.getItem() + ": the highest bid is " + high.amount + " by "
+                    + dataSource.nameOf(high.bidder) + ".";
+        }
+
+        Integer amount = parseCount(args.get(0));
+        if (amount == null) return level.ordinal() >= PermissionLevel.Mod.ordinal() ? manageAuction(args) : null;
+        if (auction == null) return null;
+        try {
+            auction.bid(dataSource.idOf(nick), amount);
+        } catch (NoSuchUserException ex) {
+            // See parseVote
+        }
         return null;
     }
 
-    private String parseRaffle(List<String> args) {
-        return null;
+    private synchronized String manageAuction(List<String> args) {
+        Auction current = auction;
+        switch (args.get(0).toLowerCase()) {
+            case "open":
+                if (current != null && current.isOpen()) return "There is already an auction open.";
+                Integer minimum = args.size() > 2 ? parseCount(args.get(1)) : null;
+                int itemStart = minimum == null ? 1 : 2;
+                if (itemStart >= args.size()) return "Usage: !auction open [minimum] {item}";
+
+                auction = new Auction(joinFrom(args, itemStart), minimum == null ? 1 : minimum, dataSource);
+                return "Auction open for " + auction.getItem() + "! Bid with !auction {amount}, starting at "
+                        + auction.getMinimum() + ".";
+            case "close":
+                if (current == null || !current.isOpen()) return "There is no open auction.";
+                Auction.Bid winner = current.close();
+                if (winner.bidder == UserTable.NO_USER) return "The auction for " + current.getItem() + " closed with no bids.";
+                return "Sold! " + current.getItem() + " goes to " + dataSource.nameOf(winner.bidder) + " for " + winner.amount + ".";
+            case "cancel":
+                if (current == null || !current.isOpen()) return "There is no open auction.";
+                current.cancel();
+                return "The auction for " + current.getItem() + " was cancelled, all bids have been returned.";
+            default:
+                return "Usage: !auction [amount|open [minimum] {item}|close|cancel]";
+        }
+    }
+
+    /*
+        Anyone can enter with a plain !raffle, the rest is for mods. Entries get no answer, like votes.
+     */
+    private String parseRaffle(String nick, PermissionLevel level, List<String> args) {
+        if (dataSource == null) return null;
+        if (args.isEmpty() || level.ordinal() < PermissionLevel.Mod.ordinal()) {
+            Raffle raffle = this.raffle;
+            if (raffle == null) return null;
+            try {
+                raffle.enter(dataSource.idOf(nick));
+            } catch (NoSuchUserException ex) {
+                // See parseVote
+            }
+            return null;
+        }
+        return manageRaffle(args);
+    }
+
+    private synchronized String manageRaffle(List<String> args) {
+        Raffle current = raffle;
+        switch (args.get(0).toLowerCase()) {
+            case "open":
+                if (current != null && current.isOpen()) return "There is already a raffle open.";
+                boolean weighted = args.size() > 1 && args.get(1).equalsIgnoreCase("weighted");
+                UserDataManager users = dataSource;
+                // Weighted raffles give a ticket for each point of currency, on top of the one everyone gets
+                raffle = new Raffle(weighted ? id -> 1L + users.currencyOf(id) : id -> 1L);
+                return "Raffle open! Type !raffle to enter." + (weighted ? " The more currency you have, the better your chances." : "");
+            case "close":
+                if (current == null || !current.isOpen()) return "There is no open raffle.";
+                return "Raffle closed with " + current.close() + " entries.";
+            case "draw":
+                if (current == null) return "There is no raffle to draw from.";
+                Integer count = args.size() > 1 ? parseCount(args.get(1)) : Integer.valueOf(1);
+                if (count == null || count < 1) return "Usage: !raffle draw [count]";
+                if (count > MAX_WINNERS_PER_DRAW) return "Only up to " + MAX_WINNERS_PER_DRAW + " winners can be drawn at a time.";
+
+                List<String> winners = new ArrayList<>();
+                Random random = ThreadLocalRandom.current();
+                for (int i = 0; i < count; i++) {
+                    int winner = current.draw(random);
+                    if (winner == UserTable.NO_USER) break;
+                    winners.add(dataSource.nameOf(winner));
+                }
+                if (winners.isEmpty()) return "There is nobody left to draw.";
+                return (winners.size() == 1 ? "The winner is " : "The winners are ") + String.join(", ", winners) + "!";
+            default:
+                return "Usage: !raffle [open [weighted]|close|draw [count]]";
+        }
     }
 
     private String parseDelcom(List<String> args) {
-        return null;
+        if (args.isEmpty()) return "Usage: !delcom {name}";
+
+        String name = commandName(args.get(0));
+        if (commandMap.remove(name) == null) return "There is no command !" + name + ".";
+
+        rebuildDispatchTable();
+        return "Command !" + name + " removed.";
     }
 
     private String parseEditcom(List<String> args) {
-        return null;
+        if (args.size() < 2) return "Usage: !editcom {name} [permissions] {content}";
+
+        String name = commandName(args.get(0));
+        Command command = commandMap.get(name);
+        if (command == null) return "There is no command !" + name + ".";
+
+        PermissionLevel level = parsePermission(args.get(1));
+        int contentStart = level == null ? 1 : 2;
+        if (contentStart >= args.size()) return "Usage: !editcom {name} [permissions] {content}";
+
+        if (level != null) command.setPermissionLevel(level);
+        command.setContent(joinFrom(args, contentStart)); // Compiled here, not on every call
+        return "Command !" + name + " updated.";
     }
 
     private String parseAddcom(List<String> args) {
+        if (args.size() < 2) return "Usage: !addcom {name} [permissions] {content}";
+
+        String name = commandName(args.get(0));
+        if (commandMap.containsKey(name) || builtIns.containsKey(name)) return "Command !" + name + " already exists.";
+
+        PermissionLevel level = parsePermission(args.get(1));
+        int contentStart = level == null ? 1 : 2;
+        if (contentStart >= args.size()) return "Usage: !addcom {name} [permissions] {content}";
+
+        Command command = new Command(name, level == null ? PermissionLevel.None : level, joinFrom(args, contentStart));
+        if (commandMap.putIfAbsent(name, command) != null) return "Command !" + name + " already exists.";
+
+        rebuildDispatchTable();
+        return "Command !" + name + " added.";
+    }
+
+    private static String commandName(String arg) {
+        return arg.startsWith("!") ? arg.substring(1) : arg;
+    }
+
+    /*
+        Null if the word isn't a permission level, so it can be treated as the start of the content instead.
+     */
+    private static PermissionLevel parsePermission(String arg) {
+        for (PermissionLevel level : PermissionLevel.values()) {
+            if (level.name().equalsIgnoreCase(arg)) return level;
+        }
         return null;
     }
 
+    /*
+        Null if the word isn't a non-negative number.
+     */
+    private static Integer parseCount(String arg) {
+        try {
+            int count = Integer.parseInt(arg);
+            return count < 0 ? null : count;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static String joinFrom(List<String> args, int start) {
+        return String.join(" ", args.subList(start, args.size()));
+    }
+
+    private synchronized void rebuildDispatchTable() {
+        Map<String, Dispatch> entries = new HashMap<>();
+        for (Map.Entry<String, BuiltIn> e : builtIns.entrySet()) {
+            entries.put(e.getKey(), new Dispatch(null, e.getValue()));
+        }
+        for (Command c : commandMap.values()) {
+            entries.put(c.getName(), new Dispatch(c, null));
+        }
+        dispatchTable = new DispatchTable<>(entries);
+    }
+
+    private interface BuiltInHandler {
+        String run(String nick, PermissionLevel level, List<String> args);
+    }
+
+    private static final class BuiltIn {
+        final PermissionLevel level;    // Lowest level allowed to use it
+        final BuiltInHandler handler;
+
+        BuiltIn(PermissionLevel level, BuiltInHandler handler) {
+            this.level = level;
+            this.handler = handler;
+        }
+    }
+
+    private static final class Dispatch {
+        final Command command;          // Exactly one of these is set
+        final BuiltIn builtIn;
+
+        Dispatch(Command command, BuiltIn builtIn) {
+            this.command = command;
+            this.builtIn = builtIn;
+        }
+    }
+
 }
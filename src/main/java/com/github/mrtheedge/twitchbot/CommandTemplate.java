@@ -0,0 +1,228 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.NoSuchUserException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The content of a custom command, compiled once when the command is added or edited. Content is split into plain
+ * text and variables like {@code <user>} or {@code <arg(1)>}. Each variable is bound to the code that fills it in
+ * and has its arguments split up at compile time, so calling the command is just one pass of appends.
+ *
+ * Anything that looks like a variable but isn't a known one is left in the output as it was written.
+ *
+ * Twitch runs a reply that starts with '/' or '.' as a chat command, so words the caller typed are never allowed to
+ * start the reply with one; otherwise "!hug /ban someone" would have the bot ban someone.
+ */
+final class CommandTemplate {
+
+    private static final Map<String, TemplateVariable> VARIABLES;
+    private static final String[] NO_ARGS = new String[0];
+
+    private static final ThreadLocal<StringBuilder> BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    static {
+        Map<String, TemplateVariable> vars = new HashMap<>();
+
+        vars.put("user", (out, args, ctx) -> out.append(ctx.nick));
+
+        // First word after the command, or the caller if there isn't one. Eg. "!hug <touser>"
+        vars.put("touser", (out, args, ctx) -> appendCallerText(out, ctx.args.isEmpty() ? ctx.nick : ctx.args.get(0)));
+
+        // <arg(n)> is the n-th word after the command, starting at 1. <arg(n, default)> if it might be missing.
+        vars.put("arg", (out, args, ctx) -> {
+            int n = args.length > 0 ? parseIndex(args[0]) : 1;
+            if (n >= 1 && n <= ctx.args.size()) {
+                appendCallerText(out, ctx.args.get(n - 1));
+            } else if (args.length > 1) {
+                out.append(args[1]);
+            }
+        });
+
+        vars.put("uses", (out, args, ctx) -> out.append(ctx.command == null ? 0 : ctx.command.getUseCount()));
+
+        vars.put("points", (out, args, ctx) -> {
+            try {
+                out.append(ctx.dataSource == null ? 0 : ctx.dataSource.userCurrency(ctx.nick));
+            } catch (NoSuchUserException ex) {
+                out.append(0);
+            }
+        });
+
+        vars.put("rank", (out, args, ctx) -> {
+            try {
+                out.append(ctx.dataSource == null ? 0 : ctx.dataSource.userCurrencyStanding(ctx.nick));
+            } catch (NoSuchUserException ex) {
+                out.append('-');
+            }
+        });
+
+        vars.put("viewtime", (out, args, ctx) -> {
+            long seconds = 0;
+            try {
+                if (ctx.dataSource != null) seconds = ctx.dataSource.userTotalViewTime(ctx.nick);
+            } catch (NoSuchUserException ignored) {}
+            out.append(seconds / 3600).append("h ").append((seconds % 3600) / 60).append('m');
+        });
+
+        VARIABLES = Collections.unmodifiableMap(vars);
+    }
+
+    private final String source;
+    private final Segment[] segments;
+    private final int literalLength; // Used to size the output
+
+    private CommandTemplate(String source, Segment[] segments, int literalLength) {
+        this.source = source;
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    /*
+        Splits content into segments. Variables are written as <name> or <name(arg, arg)>.
+     */
+    static CommandTemplate compile(String content) {
+        List<Segment> segments = new ArrayList<>();
+        int literalLength = 0;
+        int literalStart = 0;
+        int i = 0;
+
+        while (i < content.length()) {
+            int open = content.indexOf('<', i);
+            if (open < 0) break;
+
+            int close = content.indexOf('>', open + 1);
+            if (close < 0) break;
+
+            Segment variable = parseVariable(content, open + 1, close);
+            if (variable == null) {
+                i = open + 1; // Not a variable we know, leave it as text
+                continue;
+            }
+
+            if (open > literalStart) {
+                segments.add(new Literal(content.substring(literalStart, open)));
+                literalLength += open - literalStart;
+            }
+            segments.add(variable);
+            literalStart = close + 1;
+            i = close + 1;
+        }
+
+        if (literalStart < content.length()) {
+            segments.add(new Literal(content.substring(literalStart)));
+            literalLength += content.length() - literalStart;
+        }
+
+        return new CommandTemplate(content, segments.toArray(new Segment[segments.size()]), literalLength);
+    }
+
+    String source() {
+        return source;
+    }
+
+    String render(TemplateContext context) {
+        StringBuilder out = BUILDER.get();
+        out.setLength(0);
+        out.ensureCapacity(literalLength + 32);
+
+        for (Segment s : segments) {
+            s.appendTo(out, context);
+        }
+        return out.toString();
+    }
+
+    /*
+        Parses the inside of <...>. Returns null if it isn't a known variable.
+     */
+    private static Segment parseVariable(String content, int start, int end) {
+        int nameEnd = start;
+        while (nameEnd < end && isWordChar(content.charAt(nameEnd))) nameEnd++;
+        if (nameEnd == start) return null;
+
+        TemplateVariable variable = VARIABLES.get(content.substring(start, nameEnd).toLowerCase());
+        if (variable == null) return null;
+
+        if (nameEnd == end) return new Variable(variable, NO_ARGS);
+
+        // Anything after the name has to be a single (...) with the arguments in it
+        if (content.charAt(nameEnd) != '(' || content.charAt(end - 1) != ')') return null;
+
+        String inside = content.substring(nameEnd + 1, end - 1).trim();
+        if (inside.isEmpty()) return new Variable(variable, NO_ARGS);
+
+        String[] args = inside.split(",");
+        for (int i = 0; i < args.length; i++) args[i] = args[i].trim();
+        return new Variable(variable, args);
+    }
+
+    /*
+        Appends text from chat. At the start of the reply, leading whitespace, '/' and '.' are dropped from it.
+     */
+    private static void appendCallerText(StringBuilder out, String text) {
+        int start = 0;
+        if (isBlank(out)) {
+            while (start < text.length() && isCommandPrefix(text.charAt(start))) start++;
+        }
+        out.append(text, start, text.length());
+    }
+
+    private static boolean isBlank(CharSequence s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isWhitespace(s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean isCommandPrefix(char c) {
+        return c == '/' || c == '.' || Character.isWhitespace(c);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static int parseIndex(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private interface Segment {
+        void appendTo(StringBuilder out, TemplateContext context);
+    }
+
+    private static final class Literal implements Segment {
+        private final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, TemplateContext context) {
+            out.append(text);
+        }
+    }
+
+    private static final class Variable implements Segment {
+        private final TemplateVariable variable;
+        private final String[] args;
+
+        Variable(TemplateVariable variable, String[] args) {
+            this.variable = variable;
+            this.args = args;
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, TemplateContext context) {
+            variable.append(out, args, context);
+        }
+    }
+}
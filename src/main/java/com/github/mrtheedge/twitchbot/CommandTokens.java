@@ -0,0 +1,115 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The words of a command line, kept as offsets into the original message instead of copies of it. Splits on spaces
+ * and skips empty words, the first word is the command name. A word is only turned into a String if something asks
+ * for it.
+ *
+ * Instances are reused, one per thread, so a view must not be held onto after the command has been handled.
+ */
+final class CommandTokens {
+
+    private static final ThreadLocal<CommandTokens> REUSED = ThreadLocal.withInitial(CommandTokens::new);
+
+    private String line;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count;
+    private int nameHash;
+
+    private final List<String> args = new AbstractList<String>() {
+        @Override
+        public String get(int index) {
+            return arg(index);
+        }
+
+        @Override
+        public int size() {
+            return argCount();
+        }
+    };
+
+    private CommandTokens() {}
+
+    /*
+        Tokenizes line starting at offset, using this thread's instance.
+     */
+    static CommandTokens of(String line, int offset) {
+        CommandTokens tokens = REUSED.get();
+        tokens.split(line, offset);
+        return tokens;
+    }
+
+    private void split(String line, int offset) {
+        this.line = line;
+        count = 0;
+        nameHash = 0;
+
+        int length = line.length();
+        int i = offset;
+        while (i < length) {
+            while (i < length && line.charAt(i) == ' ') i++;
+            if (i == length) break;
+
+            int start = i;
+            int hash = 0;
+            while (i < length && line.charAt(i) != ' ') {
+                if (count == 0) hash = 31 * hash + line.charAt(i); // String.hashCode() of the name
+                i++;
+            }
+
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            if (count == 0) nameHash = hash;
+            starts[count] = start;
+            ends[count] = i;
+            count++;
+        }
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    String line() {
+        return line;
+    }
+
+    int nameStart() {
+        return starts[0];
+    }
+
+    int nameEnd() {
+        return ends[0];
+    }
+
+    int nameHash() {
+        return nameHash;
+    }
+
+    String name() {
+        return line.substring(starts[0], ends[0]);
+    }
+
+    int argCount() {
+        return Math.max(0, count - 1);
+    }
+
+    String arg(int index) {
+        if (index < 0 || index >= argCount()) throw new IndexOutOfBoundsException("No argument " + index);
+        return line.substring(starts[index + 1], ends[index + 1]);
+    }
+
+    /*
+        The arguments as a list view. Nothing is copied until an element is read.
+     */
+    List<String> args() {
+        return args;
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Spots copypasta: the same (or nearly the same) message being posted by several different users within a short
+ * window. Each message's MinHash sketch (see MessageScan) goes into a fixed ring of the most recent sketches, and a new
+ * message is compared against the ones in the ring that are still inside the window. It counts as copypasta once
+ * enough other users have posted something that shares most of its sketch.
+ *
+ * The ring never grows, so memory and the work per message are the same with a hundred chatters or a hundred
+ * thousand. A raid bigger than the ring just means the oldest copies are forgotten a little sooner. Every slot is
+ * guarded by a sequence number that is cleared while the slot is rewritten, so readers skip slots that change under
+ * them instead of locking.
+ */
+final class CopypastaTracker {
+
+    static final int RING_SIZE = 128;          // A power of two
+    static final int MIN_LENGTH = 16;           // Letters and digits, anything shorter is too likely to repeat by chance
+    static final int MATCHING_BUCKETS = 12;     // Of 16, roughly 75% of the shingles in common
+
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    // The sketches are kept apart from the rest, so the scan over them only touches what it compares
+    private final AtomicLongArray sketches = new AtomicLongArray(RING_SIZE * 2);    // [high, low] per slot
+    private final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);       // 0 while a slot is being written
+    private final AtomicLongArray posted = new AtomicLongArray(RING_SIZE);          // Seconds
+    private final AtomicReferenceArray<String> posters = new AtomicReferenceArray<>(RING_SIZE);
+    private final AtomicLong written = new AtomicLong();
+    private final LongSupplier clock;
+
+    CopypastaTracker() {
+        this(System::nanoTime);
+    }
+
+    CopypastaTracker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /*
+        Adds the message to the ring and returns true if, counting this user, at least minUsers different users
+        posted it within the window. Messages too short to judge are never copypasta and aren't kept.
+     */
+    boolean isCopypasta(String nick, MessageScan scan, int minUsers, long window, TimeUnit unit) {
+        if (scan.sketchedLength() < MIN_LENGTH) return false;
+
+        long high = scan.sketchHigh();
+        long low = scan.sketchLow();
+        int now = (int) TimeUnit.NANOSECONDS.toSeconds(clock.getAsLong());
+        int oldest = now - (int) unit.toSeconds(window);
+
+        boolean copypasta = minUsers <= 1 || countOthers(high, low, nick, oldest, minUsers - 1) >= minUsers - 1;
+        add(high, low, nick, now);
+        return copypasta;
+    }
+
+    /*
+        Different users other than this one that posted a match since the oldest time, stopping at the limit.
+     */
+    private int countOthers(long high, long low, String nick, int oldest, int limit) {
+        String[] seen = new String[limit]; // A few nicks, so repeat posters are only counted once
+        int count = 0;
+
+        for (int slot = 0; slot < RING_SIZE && count < limit; slot++) {
+            if (MessageScan.matchingBuckets(high, low, sketches.get(slot * 2), sketches.get(slot * 2 + 1)) < MATCHING_BUCKETS)
+                continue;
+
+            // Only a likely match is worth reading properly: all of the slot, then check nobody rewrote it meanwhile
+            long sequence = sequences.get(slot);
+            long otherHigh = sketches.get(slot * 2);
+            long otherLow = sketches.get(slot * 2 + 1);
+            long time = posted.get(slot);
+            String other = posters.get(slot);
+            if (sequence == 0 || sequences.get(slot) != sequence) continue;
+            if (MessageScan.matchingBuckets(high, low, otherHigh, otherLow) < MATCHING_BUCKETS) continue;
+
+            if (time < oldest || other.equals(nick)) continue;
+
+            boolean counted = false;
+            for (int i = 0; i < count && !counted; i++) counted = seen[i].equals(other);
+            if (!counted) seen[count++] = other;
+        }
+        return count;
+    }
+
+    private void add(long high, long low, String nick, int now) {
+        long sequence = written.incrementAndGet();
+        int slot = (int) (sequence - 1) & RING_MASK;
+        sequences.set(slot, 0);
+        sketches.set(slot * 2, high);
+        sketches.set(slot * 2 + 1, low);
+        posted.set(slot, now);
+        posters.set(slot, nick);
+        sequences.set(slot, sequence);
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pays everyone watching a channel on a fixed interval, with a bonus for the people who are also chatting. Each
+ * payout is a single sweep over the users in chat, see UserDataManager.payout(). It runs on the shared TimerWheel,
+ * so a channel's payouts don't need a thread of their own.
+ */
+public class CurrencyPayout {
+
+    public static final int DEFAULT_INTERVAL_MINUTES = 5;
+    public static final int DEFAULT_AMOUNT = 1;
+    public static final int DEFAULT_ACTIVE_BONUS = 1;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final UserDataManager users;
+    private final TimerWheel wheel;
+
+    private volatile int intervalMinutes = DEFAULT_INTERVAL_MINUTES;
+    private volatile int amount = DEFAULT_AMOUNT;
+    private volatile int activeBonus = DEFAULT_ACTIVE_BONUS;
+    private volatile TimerWheel.Timeout next;
+    private volatile boolean running;
+
+    CurrencyPayout(UserDataManager users, TimerWheel wheel) {
+        this.users = users;
+        this.wheel = wheel;
+    }
+
+    public void start() {
+        running = true;
+        next = wheel.schedule(this::run, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        running = false;
+        TimerWheel.Timeout timeout = next;
+        if (timeout != null) timeout.cancel();
+    }
+
+    /*
+        Takes effect from the next payout on.
+     */
+    public void setIntervalMinutes(int intervalMinutes) {
+        if (intervalMinutes < 1) throw new IllegalArgumentException("Payouts can't happen more than once a minute");
+        this.intervalMinutes = intervalMinutes;
+    }
+
+    public void setAmount(int amount) {
+        this.amount = amount;
+    }
+
+    /*
+        Extra currency for anyone who sent a message since the last payout.
+     */
+    public void setActiveBonus(int activeBonus) {
+        this.activeBonus = activeBonus;
+    }
+
+    public int getIntervalMinutes() {
+        return intervalMinutes;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public int getActiveBonus() {
+        return activeBonus;
+    }
+
+    /*
+        Pays everyone now, returns how many users were paid.
+     */
+    public int payNow() {
+        long start = System.nanoTime();
+        int paid = users.payout(amount, activeBonus, intervalMinutes);
+        logger.debug("Paid " + paid + " users in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        return paid;
+    }
+
+    private void run() {
+        if (!running) return; // Stopped while it was being rescheduled
+
+        payNow();
+        next = wheel.schedule(this::run, intervalMinutes, TimeUnit.MINUTES);
+    }
+}
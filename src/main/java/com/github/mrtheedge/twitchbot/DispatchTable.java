@@ -0,0 +1,57 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Map;
+
+/**
+ * Resolves a command name straight from the message it appears in, without copying it out first. It's an open
+ * addressed hash table keyed on the String hash of the name, so a line starting with '!' that isn't a command costs
+ * one probe and no allocation.
+ *
+ * Tables are immutable. CommandManager builds a new one when commands are added or removed.
+ */
+final class DispatchTable<V> {
+
+    private final String[] names;
+    private final int[] hashes;
+    private final Object[] values;
+    private final int mask;
+
+    DispatchTable(Map<String, ? extends V> entries) {
+        int capacity = Integer.highestOneBit(Math.max(4, entries.size() * 2 - 1)) << 1; // At most half full
+        names = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+
+        for (Map.Entry<String, ? extends V> e : entries.entrySet()) {
+            int hash = e.getKey().hashCode();
+            int slot = spread(hash) & mask;
+            while (names[slot] != null) slot = (slot + 1) & mask;
+
+            names[slot] = e.getKey();
+            hashes[slot] = hash;
+            values[slot] = e.getValue();
+        }
+    }
+
+    /*
+        Looks up line[start, end). The hash must be the String.hashCode() of that slice.
+     */
+    @SuppressWarnings("unchecked")
+    V get(String line, int start, int end, int hash) {
+        int length = end - start;
+        int slot = spread(hash) & mask;
+
+        String name;
+        while ((name = names[slot]) != null) {
+            if (hashes[slot] == hash && name.length() == length && line.regionMatches(start, name, 0, length))
+                return (V) values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the work for each chat event off of the IRC listener thread. Events are sharded by channel and user name onto
+ * a fixed set of worker threads, each with its own bounded queue, so everything for one user in a channel still
+ * happens in the order it arrived while different users and channels are handled in parallel.
+ *
+ * Submitting never blocks. When a shard's queue is full, chat messages are dropped (and counted) rather than
+ * slowing down the socket. Membership events like join/part can use a small reserve at the end of each queue that
+ * messages can't, so bookkeeping keeps working for a while after messages start being shed.
+ */
+final class EventPipeline {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    static final int DEFAULT_RESERVE = 256;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Shard[] shards;
+    private final int reserve;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    EventPipeline(int workers) {
+        this(workers, DEFAULT_QUEUE_CAPACITY, DEFAULT_RESERVE);
+    }
+
+    EventPipeline(int workers, int queueCapacity, int reserve) {
+        if (workers < 1 || queueCapacity < 1 || reserve < 0)
+            throw new IllegalArgumentException("workers and queueCapacity must be positive, reserve can't be negative");
+
+        this.reserve = reserve;
+        shards = new Shard[workers];
+        for (int i = 0; i < workers; i++) {
+            shards[i] = new Shard(new ArrayBlockingQueue<Runnable>(queueCapacity + reserve), "event-worker-" + i);
+            shards[i].start();
+        }
+    }
+
+    /*
+        Queues a task behind every other task for the same user in the same channel. Returns false if it was shed.
+     */
+    boolean submit(String channel, String user, Runnable task, boolean sheddable) {
+        if (!running) return false;
+
+        BlockingQueue<Runnable> queue = shardFor(channel, user).queue;
+
+        if ((sheddable && queue.remainingCapacity() <= reserve) || !queue.offer(task)) {
+            long count = dropped.incrementAndGet();
+            if (count == 1 || count % 1000 == 0)
+                logger.warn("Event queue is full, " + count + " events have been dropped");
+            return false;
+        }
+        return true;
+    }
+
+    /*
+        Splits users up by the worker that handles them in the channel, for bulk events. Each batch can be submitted
+        as one task under any of its users, and it'll run on the same thread as everything else for all of them.
+     */
+    List<List<String>> partition(String channel, List<String> users) {
+        List<List<String>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) byShard.add(new ArrayList<>(users.size() / shards.length + 1));
+        for (String user : users) byShard.get(shardIndex(channel, user)).add(user);
+
+        List<List<String>> batches = new ArrayList<>(shards.length);
+        for (List<String> batch : byShard) {
+            if (!batch.isEmpty()) batches.add(batch);
+        }
+        return batches;
+    }
+
+    /*
+        Waits until every worker has run whatever was queued before this call, by queueing a marker behind it on each
+        of them. Returns false if that didn't happen within the timeout, or the pipeline is shutting down. Never call
+        it from a worker, which would be waiting on itself.
+     */
+    boolean awaitQueued(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!running) return false;
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        CountDownLatch done = new CountDownLatch(shards.length);
+        for (Shard s : shards) {
+            if (!s.queue.offer(done::countDown, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+        }
+        return done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    int queuedCount() {
+        int count = 0;
+        for (Shard s : shards) count += s.queue.size();
+        return count;
+    }
+
+    /*
+        Stops accepting events and waits for the workers to finish what has already been queued.
+     */
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        running = false;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        for (Shard s : shards) s.interrupt();
+        for (Shard s : shards) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) s.join(remaining);
+        }
+    }
+
+    private Shard shardFor(String channel, String user) {
+        return shards[shardIndex(channel, user)];
+    }
+
+    private int shardIndex(String channel, String user) {
+        int h = 31 * channel.hashCode() + user.hashCode();
+        h ^= (h >>> 16); // Spread the bits, nicks often differ only at the end
+        return (h & 0x7fffffff) % shards.length;
+    }
+
+    private final class Shard extends Thread {
+
+        final BlockingQueue<Runnable> queue;
+
+        Shard(BlockingQueue<Runnable> queue, String name) {
+            super(name);
+            this.queue = queue;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = running ? queue.take() : queue.poll();
+                } catch (InterruptedException ex) {
+                    continue; // Shutting down, drain whatever is left
+                }
+                if (task == null) return;
+
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    logger.error("Error while handling chat event", ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.DataStoreException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps user data in plain files instead of a database: a JSON snapshot of every user, plus an append-only journal of
+ * the users that changed since. Changed users are appended to the journal every second, so a crash loses at most
+ * about a second of changes. On startup the snapshot is streamed in and the journal is replayed on top of it through
+ * a memory mapped buffer.
+ *
+ * Once the journal grows past a limit (and on close) it is compacted: a new snapshot is written next to the old one,
+ * moved over it, and the journal is started again. Both files carry a generation number, so a crash between the two
+ * steps never replays a journal that is already part of the newer snapshot.
+ *
+ * Journal records are a length, the user's columns and a CRC32. A record that was only partly written when the bot
+ * crashed fails its check, and the journal is cut off there.
+ */
+public class FileUserDataStore implements UserDataStore {
+
+    static final long DEFAULT_FLUSH_MILLIS = 1000;
+    static final long DEFAULT_COMPACT_BYTES = 64L * 1024 * 1024;
+
+    private static final String SNAPSHOT = "users.json";
+    private static final String JOURNAL = "users.journal";
+    private static final int JOURNAL_MAGIC = 0x54424A31; // "TBJ1"
+    private static final int HEADER_BYTES = 4 + 8;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final long compactBytes;
+    private final ScheduledExecutorService flusher;
+    private final Object flushLock = new Object();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final CRC32 crc = new CRC32();
+
+    private volatile UserTable table; // Set once the users have been loaded
+    private FileChannel journal;
+    private long generation;
+
+    public FileUserDataStore(Path directory) throws DataStoreException {
+        this(directory, DEFAULT_FLUSH_MILLIS, DEFAULT_COMPACT_BYTES);
+    }
+
+    public FileUserDataStore(Path directory, long flushMillis, long compactBytes) throws DataStoreException {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException ex) {
+            throw new DataStoreException("Could not create user data directory " + directory, ex);
+        }
+        this.snapshotFile = directory.resolve(SNAPSHOT);
+        this.journalFile = directory.resolve(JOURNAL);
+        this.compactBytes = compactBytes;
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "user-data-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(this::checkpointSessions, SESSION_CHECKPOINT_SECONDS, SESSION_CHECKPOINT_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /*
+        Each channel gets its own directory, named after the channel.
+     */
+    public static FileUserDataStore forChannel(String channel) throws DataStoreException {
+        String name = channel.startsWith("#") ? channel.substring(1) : channel;
+        return new FileUserDataStore(Paths.get("twitchbot-" + name.toLowerCase()));
+    }
+
+    @Override
+    public void attach(UserTable table) throws DataStoreException {
+        synchronized (flushLock) {
+            try {
+                generation = Files.exists(snapshotFile) ? readSnapshot(table) : 0;
+                long validBytes = Files.exists(journalFile) ? replayJournal(table) : 0;
+
+                journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                if (validBytes < HEADER_BYTES) {
+                    startJournal();
+                } else {
+                    journal.truncate(validBytes); // Drop whatever was half written when the bot last stopped
+                    journal.position(validBytes);
+                }
+                this.table = table;
+            } catch (IOException | RuntimeException ex) {
+                throw new DataStoreException("Could not load users from " + snapshotFile.getParent(), ex);
+            }
+        }
+    }
+
+    long journalBytes() throws IOException {
+        synchronized (flushLock) {
+            return journal == null ? 0 : journal.size();
+        }
+    }
+
+    @Override
+    public void flush() throws DataStoreException {
+        synchronized (flushLock) {
+            UserTable table = this.table;
+            if (table == null) return;
+
+            UserRows batch = new UserRows();
+            table.drainDirty(id -> batch.add(id, table)); // Copied out in one go, see H2UserDataStore
+            if (batch.size() == 0) return;
+
+            try {
+                appendToJournal(batch);
+            } catch (IOException ex) {
+                for (int i = 0; i < batch.size(); i++) table.markDirty(batch.ids[i]);
+                throw new DataStoreException("Could not save " + batch.size() + " users", ex);
+            }
+
+            try {
+                if (journal.size() > compactBytes) compact();
+            } catch (IOException ex) {
+                // Nothing is lost, the journal just keeps growing until a compaction works
+                logger.error("Could not compact the user journal", ex);
+            }
+        }
+    }
+
+    /*
+        Writes every user to a new snapshot and starts the journal over.
+     */
+    void compact() throws IOException {
+        synchronized (flushLock) {
+            UserTable table = this.table;
+            if (table == null) return;
+
+            UserRows rows = new UserRows();
+            table.inBatch(() -> {
+                for (int id = 0, size = table.size(); id < size; id++) rows.add(id, table);
+            });
+
+            long next = generation + 1;
+            Path temp = snapshotFile.resolveSibling(SNAPSHOT + ".tmp");
+            writeSnapshot(temp, rows, next);
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // If we crash here the old journal is skipped, its generation no longer matches the snapshot
+            generation = next;
+            startJournal();
+        }
+    }
+
+    @Override
+    public void close() throws DataStoreException {
+        if (flusher.isShutdown()) return; // Already closed
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        checkpointSessions(); // Everyone still in chat keeps the time they've spent so far
+        flush();
+        synchronized (flushLock) {
+            if (journal == null) return;
+            try {
+                compact(); // So the next startup only has to read the snapshot
+                journal.close();
+            } catch (IOException ex) {
+                throw new DataStoreException("Could not close user journal", ex);
+            }
+        }
+    }
+
+    private long readSnapshot(UserTable table) throws IOException {
+        long snapshotGeneration = 0;
+        try (JsonReader reader = new JsonReader(new BufferedReader(
+                new InputStreamReader(Files.newInputStream(snapshotFile), StandardCharsets.UTF_8), BUFFER_BYTES))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (field.equals("generation")) {
+                    snapshotGeneration = reader.nextLong();
+                } else if (field.equals("users")) {
+                    // Each user is [name, createdAt, lastMessageAt, viewDuration, currency]
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        reader.beginArray();
+                        table.restore(reader.nextString(), reader.nextLong(), reader.nextLong(), reader.nextLong(),
+                                reader.nextInt());
+                        reader.endArray();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return snapshotGeneration;
+    }
+
+    private void writeSnapshot(Path file, UserRows rows, long snapshotGeneration) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file.toFile());
+             JsonWriter writer = new JsonWriter(new BufferedWriter(
+                     new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_BYTES))) {
+            writer.beginObject();
+            writer.name("generation").value(snapshotGeneration);
+            writer.name("users").beginArray();
+            for (int i = 0; i < rows.size(); i++) {
+                writer.beginArray()
+                        .value(rows.names[i])
+                        .value(rows.createdAt[i])
+                        .value(rows.lastMessageAt[i])
+                        .value(rows.viewDuration[i])
+                        .value(rows.currency[i])
+                        .endArray();
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+    /*
+        Applies every intact record in the journal to the table and returns how many bytes of it were good, or 0 if
+        the journal belongs to another generation and should be thrown away.
+     */
+    private long replayJournal(UserTable table) throws IOException {
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) return 0;
+            if (length > Integer.MAX_VALUE) throw new IOException("User journal is too big to replay: " + length);
+
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (map.getInt() != JOURNAL_MAGIC || map.getLong() != generation) return 0;
+
+            CRC32 check = new CRC32();
+            while (map.remaining() >= 4) {
+                int start = map.position();
+                int recordLength = map.getInt();
+                if (recordLength <= 0 || map.remaining() < recordLength + 4) {
+                    map.position(start);
+                    break;
+                }
+
+                ByteBuffer record = map.slice();
+                record.limit(recordLength);
+                check.reset();
+                check.update(record);
+                map.position(map.position() + recordLength);
+                if ((int) check.getValue() != map.getInt()) {
+                    map.position(start);
+                    break;
+                }
+
+                byte[] name = new byte[map.getShort(start + 4)];
+                ByteBuffer fields = map.duplicate();
+                fields.position(start + 6);
+                fields.get(name);
+                table.restore(new String(name, StandardCharsets.UTF_8), fields.getLong(), fields.getLong(),
+                        fields.getLong(), fields.getInt());
+            }
+
+            if (map.position() < length)
+                logger.warn("User journal was cut off at byte " + map.position() + " of " + length + ", likely by a crash");
+            return map.position();
+        }
+    }
+
+    private void startJournal() throws IOException {
+        journal.truncate(0);
+        journal.position(0);
+        buffer.clear();
+        buffer.putInt(JOURNAL_MAGIC).putLong(generation);
+        buffer.flip();
+        while (buffer.hasRemaining()) journal.write(buffer);
+        journal.force(false);
+    }
+
+    private void appendToJournal(UserRows rows) throws IOException {
+        long start = journal.position();
+        try {
+            buffer.clear();
+            for (int i = 0; i < rows.size(); i++) {
+                byte[] name = rows.names[i].getBytes(StandardCharsets.UTF_8);
+                int recordLength = 2 + name.length + 8 + 8 + 8 + 4;
+                if (buffer.remaining() < 4 + recordLength + 4) drain();
+
+                buffer.putInt(recordLength);
+                int recordStart = buffer.position();
+                buffer.putShort((short) name.length)
+                        .put(name)
+                        .putLong(rows.createdAt[i])
+                        .putLong(rows.lastMessageAt[i])
+                        .putLong(rows.viewDuration[i])
+                        .putInt(rows.currency[i]);
+
+                ByteBuffer record = buffer.duplicate();
+                record.position(recordStart);
+                record.limit(buffer.position());
+                crc.reset();
+                crc.update(record);
+                buffer.putInt((int) crc.getValue());
+            }
+            drain();
+            journal.force(false);
+        } catch (IOException ex) {
+            // Don't leave half a batch behind for the next one to be appended after
+            journal.truncate(start);
+            journal.position(start);
+            throw ex;
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) journal.write(buffer);
+        buffer.clear();
+    }
+
+    private void checkpointSessions() {
+        UserTable table = this.table;
+        if (table != null) table.markInChatDirty();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (DataStoreException ex) {
+            logger.error("Journal flush failed, will retry", ex);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts how fast each user is posting, in a fixed amount of memory no matter how many users there are. The counts
+ * live in a count-min sketch: each nick hashes to one counter in each of a few rows, and a user's count is the
+ * smallest of their counters. Other users sharing a counter can only make a count too high, never too low, and taking
+ * the smallest keeps that rare. That only holds if the rows are picked independently, so the full nick is hashed
+ * twice with unrelated 64 bit hashes and each row combines the two differently; two nicks would have to collide in
+ * both to share every counter (String.hashCode() collisions like "Aa" and "BB" are easy to make on purpose).
+ *
+ * Time is cut into windows the length of the limit. Every counter holds the window it was last touched in along with
+ * its count for that window and the one before, all packed into one long and updated with a compare and set. Only the
+ * counters holding the user's smallest count are raised (a conservative update), which keeps busy counters from
+ * running away from the users that share them. A
+ * counter from an older window starts over the first time it's touched, so nothing has to sweep the sketch to decay
+ * it. The rate is the count in the current window plus the part of the previous window still inside the last
+ * window's worth of time, assuming the previous window's messages were spread out evenly.
+ */
+final class FloodTracker {
+
+    static final int ROWS = 4;
+    static final int WIDTH = 32768;             // A power of two, 1MB for the whole sketch
+
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int EPOCH_SHIFT = COUNT_BITS * 2;
+    private static final long EPOCH_MASK = 0xFFFF;
+
+    private static final long SEED_1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long MULTIPLIER_1 = 0xBF58476D1CE4E5B9L;
+    private static final long MULTIPLIER_2 = 0x94D049BB133111EBL;
+
+    private final AtomicLongArray counters = new AtomicLongArray(ROWS * WIDTH);
+    private final LongSupplier clock;
+
+    FloodTracker() {
+        this(System::nanoTime);
+    }
+
+    FloodTracker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /*
+        Counts a message from the user and returns true if that makes more than maxMessages of theirs within the
+        window.
+     */
+    boolean isFlooding(String nick, int maxMessages, long window, TimeUnit unit) {
+        long windowNanos = Math.max(1, unit.toNanos(window));
+        long now = clock.getAsLong();
+        long epoch = Math.floorDiv(now, windowNanos);
+        double previousWeight = 1 - (double) Math.floorMod(now, windowNanos) / windowNanos;
+
+        long tag = epoch & EPOCH_MASK;
+        long hash1 = hash(nick, SEED_1, MULTIPLIER_1);
+        long hash2 = hash(nick, SEED_2, MULTIPLIER_2) | 1; // Odd, so every row lands somewhere different
+
+        // Conservative update: only the counters at the user's smallest count go up, the others already count higher
+        long smallest = Long.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            smallest = Math.min(smallest, current(roll(counters.get(indexOf(hash1, hash2, row)), tag)));
+        }
+
+        double rate = Double.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            long cell = raise(indexOf(hash1, hash2, row), tag, smallest + 1);
+            rate = Math.min(rate, previous(cell) * previousWeight + current(cell));
+        }
+        return rate > maxMessages;
+    }
+
+    /*
+        Makes the counter's current count at least the given count, returns the counter as it is afterwards.
+     */
+    private long raise(int index, long tag, long count) {
+        while (true) {
+            long cell = counters.get(index);
+            long rolled = roll(cell, tag);
+            if (current(rolled) >= count) {
+                if (rolled == cell || counters.compareAndSet(index, cell, rolled)) return rolled;
+                continue;
+            }
+
+            long updated = (rolled & ~COUNT_MASK) | Math.min(COUNT_MASK, count);
+            if (counters.compareAndSet(index, cell, updated)) return updated;
+        }
+    }
+
+    /*
+        The counter as it should look in the window with the given tag. If it was last touched in the window just
+        before, what was current is now previous. Any older than that and both are gone.
+     */
+    private static long roll(long cell, long tag) {
+        long cellTag = cell >>> EPOCH_SHIFT;
+        if (cellTag == tag) return cell;
+
+        long previous = cellTag == ((tag - 1) & EPOCH_MASK) ? current(cell) : 0;
+        return (tag << EPOCH_SHIFT) | (previous << COUNT_BITS);
+    }
+
+    private static long previous(long cell) {
+        return (cell >>> COUNT_BITS) & COUNT_MASK;
+    }
+
+    private static long current(long cell) {
+        return cell & COUNT_MASK;
+    }
+
+    /*
+        The user's counter in the row: the two hashes combined with the row as h1 + row * h2, using the top bits.
+     */
+    private static int indexOf(long hash1, long hash2, int row) {
+        long h = hash1 + row * hash2;
+        return row * WIDTH + ((int) (h >>> 32) & (WIDTH - 1));
+    }
+
+    /*
+        A 64 bit hash of every char of the nick, finished with the murmur3 mixer so each bit depends on all of them.
+     */
+    private static long hash(String nick, long seed, long multiplier) {
+        long h = seed ^ nick.length();
+        for (int i = 0; i < nick.length(); i++) {
+            h = (h + nick.charAt(i)) * multiplier;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
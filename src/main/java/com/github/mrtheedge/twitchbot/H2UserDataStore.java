@@ -0,0 +1,175 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.DataStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps user data in an embedded H2 database using write-behind. UserDataManager flags changed users in the user
+ * table, and a background thread writes all of them every few seconds in one transaction of batched prepared
+ * statements. A user that changes many times between flushes is only written once.
+ */
+public class H2UserDataStore implements UserDataStore {
+
+    public static final String DEFAULT_URL = "jdbc:h2:./twitchbot";
+    private static final String CHANNEL_URL_PREFIX = "jdbc:h2:./twitchbot-";
+
+    static final long DEFAULT_FLUSH_SECONDS = 5;
+    private static final int BATCH_SIZE = 1000;
+    private static final int FETCH_SIZE = 10_000;
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS users (" +
+            "name VARCHAR(64) PRIMARY KEY, " +
+            "created_at BIGINT NOT NULL, " +
+            "last_message_at BIGINT NOT NULL, " +
+            "view_duration BIGINT NOT NULL, " +
+            "currency INT NOT NULL)";
+    private static final String SELECT_ALL = "SELECT name, created_at, last_message_at, view_duration, currency FROM users";
+    private static final String UPSERT = "MERGE INTO users (name, created_at, last_message_at, view_duration, currency) " +
+            "KEY (name) VALUES (?, ?, ?, ?, ?)";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Connection connection;
+    private volatile UserTable table; // Set once the users have been loaded
+    private final ScheduledExecutorService flusher;
+    private final Object flushLock = new Object();
+
+    public H2UserDataStore() throws DataStoreException {
+        this(DEFAULT_URL, DEFAULT_FLUSH_SECONDS);
+    }
+
+    public H2UserDataStore(String url, long flushSeconds) throws DataStoreException {
+        try {
+            connection = DriverManager.getConnection(url);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_TABLE);
+            }
+            connection.setAutoCommit(false);
+        } catch (SQLException ex) {
+            throw new DataStoreException("Could not open user database at " + url, ex);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "user-data-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+        flusher.scheduleWithFixedDelay(this::checkpointSessions, SESSION_CHECKPOINT_SECONDS, SESSION_CHECKPOINT_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /*
+        Each channel gets its own database file, named after the channel.
+     */
+    public static H2UserDataStore forChannel(String channel) throws DataStoreException {
+        String name = channel.startsWith("#") ? channel.substring(1) : channel;
+        return new H2UserDataStore(CHANNEL_URL_PREFIX + name.toLowerCase(), DEFAULT_FLUSH_SECONDS);
+    }
+
+    @Override
+    public void attach(UserTable table) throws DataStoreException {
+        synchronized (flushLock) {
+            try (Statement statement = connection.createStatement()) {
+                statement.setFetchSize(FETCH_SIZE);
+
+                try (ResultSet rs = statement.executeQuery(SELECT_ALL)) {
+                    while (rs.next()) {
+                        table.restore(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getInt(5));
+                    }
+                }
+                connection.commit();
+                this.table = table;
+            } catch (SQLException ex) {
+                throw new DataStoreException("Could not load users", ex);
+            }
+        }
+    }
+
+    int dirtyCount() {
+        return table == null ? 0 : table.dirtyCount();
+    }
+
+    @Override
+    public void flush() throws DataStoreException {
+        synchronized (flushLock) {
+            UserTable table = this.table;
+            if (table == null) return;
+
+            UserRows batch = new UserRows();
+            // The table clears each flag as it hands us the user, anything that changes after will be flagged again.
+            // Values are copied out during the drain so a payout or other batch is saved whole or not at all.
+            table.drainDirty(id -> batch.add(id, table));
+            if (batch.size() == 0) return;
+
+            try (PreparedStatement upsert = connection.prepareStatement(UPSERT)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    upsert.setString(1, batch.names[i]);
+                    upsert.setLong(2, batch.createdAt[i]);
+                    upsert.setLong(3, batch.lastMessageAt[i]);
+                    upsert.setLong(4, batch.viewDuration[i]);
+                    upsert.setInt(5, batch.currency[i]);
+                    upsert.addBatch();
+
+                    if ((i + 1) % BATCH_SIZE == 0) upsert.executeBatch();
+                }
+                if (batch.size() % BATCH_SIZE != 0) upsert.executeBatch();
+
+                connection.commit();
+            } catch (SQLException ex) {
+                rollback();
+                // Flag the users again so the next flush tries them again
+                for (int i = 0; i < batch.size(); i++) table.markDirty(batch.ids[i]);
+                throw new DataStoreException("Could not save " + batch.size() + " users", ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws DataStoreException {
+        if (flusher.isShutdown()) return; // Already closed
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        checkpointSessions(); // Everyone still in chat keeps the time they've spent so far
+        flush();
+        synchronized (flushLock) {
+            try {
+                connection.close();
+            } catch (SQLException ex) {
+                throw new DataStoreException("Could not close user database", ex);
+            }
+        }
+    }
+
+    private void checkpointSessions() {
+        UserTable table = this.table;
+        if (table != null) table.markInChatDirty();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (DataStoreException ex) {
+            logger.error("Write-behind flush failed, will retry", ex);
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException ex) {
+            logger.error("Rollback failed", ex);
+        }
+    }
+}
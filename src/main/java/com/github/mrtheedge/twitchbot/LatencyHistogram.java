@@ -0,0 +1,122 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long something took, in nanoseconds, without any locks. Values go into log-linear buckets: each power of
+ * two is split into 8 buckets, so any value is off by at most 12.5% and the whole range of a long fits in under 500
+ * buckets. Recording is one bucket increment and one add to a running sum.
+ *
+ * Every thread records into its own stripe of the counters (picked by thread id), so the event workers don't fight
+ * over the same cache lines. Reading adds the stripes together, it never stops anyone recording.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+    private static final int SUM_SPACING = 8; // One sum per 64 bytes
+
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray sums;
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram() {
+        int stripes = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        stripeMask = stripes - 1;
+        counts = new AtomicLongArray(stripes * BUCKETS);
+        sums = new AtomicLongArray(stripes * SUM_SPACING);
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        counts.getAndIncrement(stripe * BUCKETS + bucketOf(nanos));
+        sums.getAndAdd(stripe * SUM_SPACING, nanos);
+
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos));
+    }
+
+    Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            for (int b = 0; b < BUCKETS; b++) {
+                long c = counts.get(stripe * BUCKETS + b);
+                merged[b] += c;
+                count += c;
+            }
+            sum += sums.get(stripe * SUM_SPACING);
+        }
+        return new Snapshot(merged, count, sum, max.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (1L << exponent) | (sub << (exponent - SUB_BITS));
+    }
+
+    /*
+        The histogram as it was when snapshot() was called.
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        long count() {
+            return count;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        /*
+            The value that the given fraction (eg. 0.99) of recorded values are at or below, to within a bucket.
+         */
+        long percentile(double fraction) {
+            if (count == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank) {
+                    // Middle of the bucket, but never more than the largest value actually seen
+                    long low = lowerBound(b);
+                    long high = b + 1 < BUCKETS ? lowerBound(b + 1) - 1 : Long.MAX_VALUE;
+                    return Math.min(max, low + (high - low) / 2);
+                }
+            }
+            return max;
+        }
+    }
+}
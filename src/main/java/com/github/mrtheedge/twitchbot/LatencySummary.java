@@ -0,0 +1,53 @@
+package com.github.mrtheedge.twitchbot;
+
+/**
+ * A read-only summary of one LatencyHistogram, in microseconds. Shaped as a plain bean so JMX can show it.
+ */
+public class LatencySummary {
+
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double p999;
+    private final double max;
+
+    LatencySummary(LatencyHistogram.Snapshot snapshot) {
+        count = snapshot.count();
+        mean = snapshot.mean() / 1000;
+        p50 = snapshot.percentile(0.50) / 1000.0;
+        p90 = snapshot.percentile(0.90) / 1000.0;
+        p99 = snapshot.percentile(0.99) / 1000.0;
+        p999 = snapshot.percentile(0.999) / 1000.0;
+        max = snapshot.max() / 1000.0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return mean;
+    }
+
+    public double getP50Micros() {
+        return p50;
+    }
+
+    public double getP90Micros() {
+        return p90;
+    }
+
+    public double getP99Micros() {
+        return p99;
+    }
+
+    public double getP999Micros() {
+        return p999;
+    }
+
+    public double getMaxMicros() {
+        return max;
+    }
+}
@@ -0,0 +1,279 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Arrays;
+
+/**
+ * An order statistic index of users by score, highest score first. It is a treap where every node also knows the
+ * size of its subtree, so updating a score, finding a user's rank and reading the top N are all O(log n) instead of
+ * sorting every user on each call.
+ *
+ * Users are the dense ids handed out by UserTable, and each id is its own node: the tree lives in parallel primitive
+ * arrays indexed by id rather than in an object per user. Users with the same score are kept in id order inside the
+ * tree, but share the same rank (1, 2, 2, 4...).
+ */
+final class Leaderboard {
+
+    private static final int NIL = -1;
+    private static final int REBUILD_THRESHOLD = 1024;
+
+    private long[] score = new long[0];
+    private int[] priority = new int[0];
+    private int[] size = new int[0];   // 0 means the id isn't on the board
+    private int[] left = new int[0];
+    private int[] right = new int[0];
+
+    private int root = NIL;
+    private int count;
+    private int seed = 0x2545F491;
+
+    /*
+        Adds the user, or moves them to their new score if they are already on the board.
+     */
+    synchronized void update(int user, long newScore) {
+        ensureCapacity(user);
+        if (size[user] != 0) {
+            if (score[user] == newScore) return;
+            root = delete(root, user);
+        } else {
+            count++;
+        }
+
+        score[user] = newScore;
+        priority[user] = nextPriority();
+        size[user] = 1;
+        left[user] = NIL;
+        right[user] = NIL;
+        root = insert(root, user);
+    }
+
+    /*
+        Sets the scores for the first count ids. When that's a large part of the board, the tree is rebuilt in one pass
+        instead, which is much cheaper than moving every user one at a time.
+     */
+    synchronized void updateAll(int[] users, long[] scores, int count) {
+        if (count < REBUILD_THRESHOLD || count < this.count / 4) {
+            for (int i = 0; i < count; i++) update(users[i], scores[i]);
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int user = users[i];
+            ensureCapacity(user);
+            if (size[user] == 0) {
+                size[user] = 1;
+                this.count++;
+            }
+            score[user] = scores[i];
+        }
+        rebuild();
+    }
+
+    synchronized void remove(int user) {
+        if (user >= size.length || size[user] == 0) return;
+
+        root = delete(root, user);
+        size[user] = 0;
+        count--;
+    }
+
+    synchronized void clear() {
+        Arrays.fill(size, 0);
+        root = NIL;
+        count = 0;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /*
+        1 based position of the user, or 0 if they aren't on the board. Ties share the best position.
+     */
+    synchronized int rank(int user) {
+        if (user >= size.length || size[user] == 0) return 0;
+
+        // Count everyone with a strictly higher score
+        long s = score[user];
+        int higher = 0;
+        int n = root;
+        while (n != NIL) {
+            if (score[n] > s) {
+                higher += sizeOf(left[n]) + 1;
+                n = right[n];
+            } else {
+                n = left[n];
+            }
+        }
+        return higher + 1;
+    }
+
+    /*
+        Ids of the first n users, best first.
+     */
+    synchronized int[] top(int n) {
+        int[] top = new int[Math.max(0, Math.min(n, count))];
+        collect(root, top, 0);
+        return top;
+    }
+
+    private int collect(int node, int[] out, int filled) {
+        if (node == NIL || filled >= out.length) return filled;
+
+        filled = collect(left[node], out, filled);
+        if (filled < out.length) out[filled++] = node;
+        return collect(right[node], out, filled);
+    }
+
+    /*
+        Sorts every user on the board and builds a balanced tree from them. Priorities go down with depth, so it's
+        still a valid treap and later updates work as usual.
+     */
+    private void rebuild() {
+        int[] order = new int[count];
+        int n = 0;
+        for (int id = 0; id < size.length; id++) {
+            if (size[id] != 0) order[n++] = id;
+        }
+        sort(order, new int[n], 0, n);
+        root = build(order, 0, n, 0);
+    }
+
+    private int build(int[] order, int from, int to, int depth) {
+        if (from >= to) return NIL;
+
+        int mid = (from + to) >>> 1;
+        int node = order[mid];
+        priority[node] = Integer.MAX_VALUE - depth;
+        left[node] = build(order, from, mid, depth + 1);
+        right[node] = build(order, mid + 1, to, depth + 1);
+        resize(node);
+        return node;
+    }
+
+    // Merge sort by board order, on plain ints so sorting a big board doesn't box every id
+    private void sort(int[] ids, int[] scratch, int from, int to) {
+        if (to - from < 2) return;
+
+        int mid = (from + to) >>> 1;
+        sort(ids, scratch, from, mid);
+        sort(ids, scratch, mid, to);
+        if (compare(ids[mid - 1], ids[mid]) <= 0) return; // Already in order
+
+        System.arraycopy(ids, from, scratch, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) ids[k++] = compare(scratch[i], scratch[j]) <= 0 ? scratch[i++] : scratch[j++];
+        while (i < mid) ids[k++] = scratch[i++];
+        while (j < to) ids[k++] = scratch[j++];
+    }
+
+    private int insert(int tree, int node) {
+        if (tree == NIL) return node;
+
+        if (priority[node] > priority[tree]) {
+            splitInto(tree, node);
+            resize(node);
+            return node;
+        }
+
+        if (compare(node, tree) < 0) {
+            left[tree] = insert(left[tree], node);
+        } else {
+            right[tree] = insert(right[tree], node);
+        }
+        resize(tree);
+        return tree;
+    }
+
+    private int delete(int tree, int node) {
+        if (tree == NIL) return NIL;
+
+        if (tree == node) return merge(left[tree], right[tree]);
+
+        if (compare(node, tree) < 0) {
+            left[tree] = delete(left[tree], node);
+        } else {
+            right[tree] = delete(right[tree], node);
+        }
+        resize(tree);
+        return tree;
+    }
+
+    /*
+        Splits the tree into the nodes that order before the key and the nodes that order after it, and hangs them
+        off the key's left and right.
+     */
+    private void splitInto(int tree, int key) {
+        int[] halves = new int[2];
+        split(tree, key, halves);
+        left[key] = halves[0];
+        right[key] = halves[1];
+    }
+
+    private void split(int tree, int key, int[] halves) {
+        if (tree == NIL) {
+            halves[0] = NIL;
+            halves[1] = NIL;
+            return;
+        }
+
+        if (compare(tree, key) < 0) {
+            split(right[tree], key, halves);
+            right[tree] = halves[0];
+            resize(tree);
+            halves[0] = tree;
+        } else {
+            split(left[tree], key, halves);
+            left[tree] = halves[1];
+            resize(tree);
+            halves[1] = tree;
+        }
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) return b;
+        if (b == NIL) return a;
+
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            resize(a);
+            return a;
+        } else {
+            left[b] = merge(a, left[b]);
+            resize(b);
+            return b;
+        }
+    }
+
+    // Highest score first, then by id so every user has one place in the tree
+    private int compare(int a, int b) {
+        if (score[a] != score[b]) return score[a] > score[b] ? -1 : 1;
+        return Integer.compare(a, b);
+    }
+
+    private void resize(int node) {
+        size[node] = sizeOf(left[node]) + sizeOf(right[node]) + 1;
+    }
+
+    private int sizeOf(int node) {
+        return node == NIL ? 0 : size[node];
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < size.length) return;
+
+        int capacity = Math.max(id + 1, Math.max(64, size.length + (size.length >> 1)));
+        score = Arrays.copyOf(score, capacity);
+        priority = Arrays.copyOf(priority, capacity);
+        size = Arrays.copyOf(size, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+    }
+
+    private int nextPriority() {
+        // xorshift, good enough to keep the treap balanced
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+}
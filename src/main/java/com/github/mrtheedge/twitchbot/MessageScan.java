@@ -0,0 +1,244 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Arrays;
+
+/**
+ * The result of walking a chat message exactly once. Counts the capital letters, looks for anything shaped like a
+ * domain name (with or without a scheme), and checks each space separated token against the blacklist, all in the
+ * same loop so a message is never scanned more than once by the spam filter.
+ *
+ * The link recognizer is a small hand written state machine instead of a regex, so the cost is always linear in the
+ * length of the message no matter what somebody pastes into chat.
+ *
+ * If asked, the same loop also sketches the message for CopypastaTracker. Only letters and digits count (lowercased),
+ * so spacing and punctuation tricks don't change the sketch. Every run of SHINGLE of those characters is hashed once
+ * as the window rolls along, and the smallest hash in each of 16 buckets is kept (one permutation MinHash). The
+ * low byte of each bucket's minimum is packed into two longs, so comparing two sketches is a few bit operations.
+ *
+ * The message can be scanned where it sits in the raw IRC line, and emotes in it are left out of the caps count and
+ * the blacklist (a sub emote can be all caps, and an emote's name is never a word somebody typed).
+ */
+final class MessageScan {
+
+    private static final int MIN_TLD_LENGTH = 2;
+    private static final int MAX_TLD_LENGTH = 6;
+
+    static final int SHINGLE = 4;                  // Characters per shingle, packed 16 bits each into one long
+    static final int SKETCH_BUCKETS = 16;
+
+    private int length;             // Not counting emotes
+    private int capsCount;
+    private boolean containsLink;
+    private boolean containsBlacklistedWord;
+
+    // Host recognizer state. A host is one or more labels of [A-Za-z0-9-] separated by single dots.
+    private int labels;             // Labels completed by a '.' in the current host candidate
+    private int labelLength;        // Length of the label currently being read
+    private boolean labelAlpha;     // Whether the current label is only letters (a possible TLD)
+    private int lastLabelLength;    // The most recently completed label, used when the host ends with a trailing '.'
+    private boolean lastLabelAlpha;
+
+    // Sketch state, only used when sketching
+    private final int[] minimums;
+    private long shingle;
+    private int sketchedLength;     // Letters and digits seen
+    private long sketchHigh;
+    private long sketchLow;
+
+    MessageScan(String message, Blacklist blacklist) {
+        this(message, blacklist, false);
+    }
+
+    MessageScan(String message, Blacklist blacklist, boolean sketch) {
+        this(message, 0, MessageView.NO_EMOTES, blacklist, sketch);
+    }
+
+    /*
+        Scans from the given index to the end of the source. Emotes are [start, end) pairs relative to that index,
+        sorted by start, as MessageView gives them.
+     */
+    MessageScan(String source, int from, int[] emotes, Blacklist blacklist, boolean sketch) {
+        int end = source.length();
+        minimums = sketch ? new int[SKETCH_BUCKETS] : null;
+        if (sketch) Arrays.fill(minimums, Integer.MAX_VALUE);
+
+        boolean checkTokens = blacklist != null && !blacklist.isEmpty();
+        int tokenStart = from;
+        int tokenHash = 0;
+        boolean tokenIsEmote = false;
+
+        int emote = 0;
+        int emoteStart = emotes.length == 0 ? Integer.MAX_VALUE : from + emotes[0];
+        int emoteEnd = emotes.length == 0 ? Integer.MAX_VALUE : from + emotes[1];
+        int emoteChars = 0;
+
+        for (int i = from; i < end; i++) {
+            char c = source.charAt(i);
+
+            boolean inEmote = false;
+            if (i >= emoteStart) {
+                while (i >= emoteEnd) {
+                    emote += 2;
+                    emoteStart = emote < emotes.length ? from + emotes[emote] : Integer.MAX_VALUE;
+                    emoteEnd = emote < emotes.length ? from + emotes[emote + 1] : Integer.MAX_VALUE;
+                }
+                inEmote = i >= emoteStart;
+            }
+
+            if (inEmote) {
+                emoteChars++;
+            } else if (Character.isUpperCase(c)) {
+                capsCount++;
+            }
+            if (i == tokenStart) tokenIsEmote = inEmote;
+
+            if (!containsLink) {
+                readHostChar(c);
+            }
+
+            if (minimums != null) {
+                if (c < 128) {
+                    if (isLetter(c) || (c >= '0' && c <= '9')) addToSketch((char) (c | 0x20)); // Lowercase, digits keep
+                } else if (Character.isLetterOrDigit(c)) {
+                    addToSketch(Character.toLowerCase(c));
+                }
+            }
+
+            if (c == ' ') {
+                if (checkTokens && !containsBlacklistedWord && !tokenIsEmote)
+                    containsBlacklistedWord = blacklist.contains(source, tokenStart, i, tokenHash);
+                tokenStart = i + 1;
+                tokenHash = 0;
+            } else {
+                tokenHash = 31 * tokenHash + c; // Same as String.hashCode(), so the token never has to be copied
+            }
+        }
+
+        if (!containsLink) endHost();
+        if (checkTokens && !containsBlacklistedWord && !tokenIsEmote)
+            containsBlacklistedWord = blacklist.contains(source, tokenStart, end, tokenHash);
+        if (minimums != null) finishSketch();
+        length = end - from - emoteChars;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int capsCount() {
+        return capsCount;
+    }
+
+    double capsRatio() {
+        return length == 0 ? 0 : ((double) capsCount) / length;
+    }
+
+    boolean containsLink() {
+        return containsLink;
+    }
+
+    boolean containsBlacklistedWord() {
+        return containsBlacklistedWord;
+    }
+
+    /*
+        How many letters and digits went into the sketch. Sketches of very short messages aren't worth comparing.
+     */
+    int sketchedLength() {
+        return sketchedLength;
+    }
+
+    long sketchHigh() {
+        return sketchHigh;
+    }
+
+    long sketchLow() {
+        return sketchLow;
+    }
+
+    /*
+        How many of the 16 bucket minimums two sketches share, about 16 times the Jaccard similarity of their shingles.
+     */
+    static int matchingBuckets(long high1, long low1, long high2, long low2) {
+        // Each mask has the top bit of every byte that was equal, shifting one over lets a single count do both
+        return Long.bitCount(equalBytes(high1 ^ high2) | (equalBytes(low1 ^ low2) >>> 1));
+    }
+
+    private static long equalBytes(long x) {
+        long t = (x & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL;
+        return ~(t | x | 0x7F7F7F7F7F7F7F7FL);
+    }
+
+    private void addToSketch(char c) {
+        shingle = (shingle << 16) | c;
+        if (++sketchedLength < SHINGLE) return;
+
+        long hash = shingle * 0x9E3779B97F4A7C15L;
+        int bucket = (int) (hash >>> 60);
+        int value = (int) (hash >>> 28) & Integer.MAX_VALUE;
+        if (value < minimums[bucket]) minimums[bucket] = value;
+    }
+
+    private void finishSketch() {
+        if (sketchedLength < SHINGLE) return;
+
+        for (int b = 0; b < SKETCH_BUCKETS; b++) {
+            int value = minimums[b];
+            // An empty bucket borrows from the next one that isn't, shifted by how far it had to look
+            for (int d = 1; value == Integer.MAX_VALUE && d < SKETCH_BUCKETS; d++) {
+                int borrowed = minimums[(b + d) & (SKETCH_BUCKETS - 1)];
+                if (borrowed != Integer.MAX_VALUE) value = borrowed + d * 0x9E3779B9;
+            }
+            long packed = value & 0xFF;
+            if (b < 8) {
+                sketchHigh |= packed << (b * 8);
+            } else {
+                sketchLow |= packed << ((b - 8) * 8);
+            }
+        }
+    }
+
+    private void readHostChar(char c) {
+        if (isLetter(c)) {
+            if (labelLength == 0) labelAlpha = true;
+            labelLength++;
+        } else if ((c >= '0' && c <= '9') || c == '-') {
+            labelLength++;
+            labelAlpha = false;
+        } else if (c == '.') {
+            if (labelLength == 0) {
+                // Two dots in a row (or a leading dot) can't be part of a host name, eg. "wait..."
+                endHost();
+                return;
+            }
+            labels++;
+            lastLabelLength = labelLength;
+            lastLabelAlpha = labelAlpha;
+            labelLength = 0;
+        } else {
+            // Anything else (whitespace, '/', ':', punctuation) ends the current candidate, so "https://x.com/a" is
+            // checked as "https" and then "x.com".
+            endHost();
+        }
+    }
+
+    private void endHost() {
+        if (labelLength > 0) {
+            if (labels >= 1 && labelAlpha && isTldLength(labelLength)) containsLink = true;
+        } else {
+            if (labels >= 2 && lastLabelAlpha && isTldLength(lastLabelLength)) containsLink = true;
+        }
+
+        labels = 0;
+        labelLength = 0;
+        lastLabelLength = 0;
+    }
+
+    private static boolean isTldLength(int length) {
+        return length >= MIN_TLD_LENGTH && length <= MAX_TLD_LENGTH;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
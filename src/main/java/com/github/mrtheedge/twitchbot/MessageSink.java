@@ -0,0 +1,10 @@
+package com.github.mrtheedge.twitchbot;
+
+/**
+ * Where outgoing chat lines end up. Normally this is the IRC connection, but anything can stand in for it.
+ */
+public interface MessageSink {
+
+    void send(String channel, String message);
+
+}
@@ -0,0 +1,296 @@
+package com.github.mrtheedge.twitchbot;
+
+/**
+ * A chat line from Twitch, read in place. Parsing only finds where the tags, the nick, the channel and the text are in
+ * the raw line; nothing is copied out of it until someone asks for it, and the IRCv3 tags are only looked at when a
+ * tag is asked for. Checks that can work on the line itself (the spam filter, the permission level) never copy it.
+ *
+ * Emote ranges come from the emotes tag, as [start, end) pairs of offsets into the text, sorted by start, so the
+ * spam filter can skip emote names (eg. "KAPPA KAPPA" isn't shouting). The permission level comes from the badges,
+ * falling back to the older mod and subscriber tags.
+ *
+ * Not thread safe, but it's only ever handled by one thread at a time: the IRC reader, then the event worker.
+ */
+final class MessageView {
+
+    static final int[] NO_EMOTES = new int[0];
+
+    private static final String COMMAND = "PRIVMSG #";
+    private static final char CTCP = '\u0001';
+
+    // Badges that give a permission level, highest first. Staff and admins can moderate every channel.
+    private static final String[] BADGES = {"broadcaster", "moderator", "staff", "admin", "global_mod", "subscriber",
+            "founder"};
+    private static final PermissionLevel[] BADGE_LEVELS = {PermissionLevel.Broadcaster, PermissionLevel.Mod,
+            PermissionLevel.Mod, PermissionLevel.Mod, PermissionLevel.Mod, PermissionLevel.Subscriber,
+            PermissionLevel.Subscriber};
+
+    private final String line;
+    private final int tagsEnd;      // Index of the space after the tags, 0 if the line has none
+    private final int nickStart;
+    private final int nickEnd;
+    private final int channelStart;
+    private final int channelEnd;
+    private final int textStart;
+
+    private String nick;
+    private String channel;
+    private String text;
+    private int[] emotes;
+
+    private MessageView(String line, int tagsEnd, int nickStart, int nickEnd, int channelStart, int channelEnd,
+                        int textStart) {
+        this.line = line;
+        this.tagsEnd = tagsEnd;
+        this.nickStart = nickStart;
+        this.nickEnd = nickEnd;
+        this.channelStart = channelStart;
+        this.channelEnd = channelEnd;
+        this.textStart = textStart;
+    }
+
+    /*
+        A view of the line if it's a message to a channel (with or without tags), otherwise null.
+     */
+    static MessageView parse(String line) {
+        int tagsEnd = 0;
+        if (line.startsWith("@")) {
+            tagsEnd = line.indexOf(' ');
+            if (tagsEnd < 0) return null;
+        }
+
+        int prefix = tagsEnd == 0 ? 0 : tagsEnd + 1;
+        if (!line.startsWith(":", prefix)) return null;
+        int nickStart = prefix + 1;
+        int prefixEnd = line.indexOf(' ', nickStart);
+        if (prefixEnd < 0 || !line.startsWith(COMMAND, prefixEnd + 1)) return null;
+        int nickEnd = line.indexOf('!', nickStart);
+        if (nickEnd < 0 || nickEnd > prefixEnd) nickEnd = prefixEnd;
+
+        int channelStart = prefixEnd + 1 + COMMAND.length() - 1; // Keeps the '#'
+        int channelEnd = line.indexOf(' ', channelStart);
+        if (channelEnd < 0) return null;
+        int textStart = line.startsWith(" :", channelEnd) ? channelEnd + 2 : channelEnd + 1;
+
+        return new MessageView(line, tagsEnd, nickStart, nickEnd, channelStart, channelEnd, textStart);
+    }
+
+    String nick() {
+        if (nick == null) nick = line.substring(nickStart, nickEnd);
+        return nick;
+    }
+
+    /*
+        The channel, lowercased, with its '#'.
+     */
+    String channel() {
+        if (channel == null) channel = line.substring(channelStart, channelEnd).toLowerCase();
+        return channel;
+    }
+
+    String text() {
+        if (text == null) text = line.substring(textStart);
+        return text;
+    }
+
+    /*
+        The raw line and where the text starts in it, for reading the text without copying it.
+     */
+    String source() {
+        return line;
+    }
+
+    int textStart() {
+        return textStart;
+    }
+
+    int textLength() {
+        return line.length() - textStart;
+    }
+
+    boolean textStartsWith(char c) {
+        return textStart < line.length() && line.charAt(textStart) == c;
+    }
+
+    boolean textEquals(String other) {
+        return textLength() == other.length() && line.startsWith(other, textStart);
+    }
+
+    /*
+        A /me message. These are CTCP ACTIONs, which PircBotX already knows how to handle.
+     */
+    boolean isAction() {
+        return textStartsWith(CTCP);
+    }
+
+    /*
+        The value of the tag, unescaped, or null if the line doesn't have it.
+     */
+    String tag(String key) {
+        int start = valueStart(key);
+        return start < 0 ? null : unescape(line, start, valueEnd(start));
+    }
+
+    PermissionLevel permission() {
+        int badges = valueStart("badges");
+        if (badges >= 0) {
+            PermissionLevel level = permissionOfBadges(line, badges, valueEnd(badges));
+            if (level != PermissionLevel.None) return level;
+        }
+        if (tagIsOne("mod")) return PermissionLevel.Mod;
+        if (tagIsOne("subscriber")) return PermissionLevel.Subscriber;
+        return PermissionLevel.None;
+    }
+
+    /*
+        Where the emotes are in the text, as [start, end) pairs sorted by start. Twitch counts in code points, these
+        are chars, so they can be used on the text directly.
+     */
+    int[] emotes() {
+        if (emotes == null) {
+            int start = valueStart("emotes");
+            emotes = start < 0 ? NO_EMOTES : parseEmotes(start, valueEnd(start));
+        }
+        return emotes;
+    }
+
+    /*
+        The highest level any of the badges (a list like "moderator/1,subscriber/12") gives.
+     */
+    static PermissionLevel permissionOfBadges(String badges, int from, int to) {
+        PermissionLevel level = PermissionLevel.None;
+        int i = from;
+        while (i < to) {
+            int end = indexOf(badges, ',', i, to);
+            int nameEnd = indexOf(badges, '/', i, end);
+            for (int b = 0; b < BADGES.length; b++) {
+                String badge = BADGES[b];
+                if (nameEnd - i == badge.length() && badges.startsWith(badge, i)) {
+                    if (BADGE_LEVELS[b].ordinal() > level.ordinal()) level = BADGE_LEVELS[b];
+                    break;
+                }
+            }
+            i = end + 1;
+        }
+        return level;
+    }
+
+    private boolean tagIsOne(String key) {
+        int start = valueStart(key);
+        return start >= 0 && valueEnd(start) == start + 1 && line.charAt(start) == '1';
+    }
+
+    private int valueStart(String key) {
+        int i = 1; // After the '@'
+        while (i < tagsEnd) {
+            int end = indexOf(line, ';', i, tagsEnd);
+            int keyEnd = i + key.length();
+            if (keyEnd <= end && line.startsWith(key, i)) {
+                if (keyEnd == end) return end;                  // No value
+                if (line.charAt(keyEnd) == '=') return keyEnd + 1;
+            }
+            i = end + 1;
+        }
+        return -1;
+    }
+
+    private int valueEnd(int valueStart) {
+        return indexOf(line, ';', valueStart, tagsEnd);
+    }
+
+    /*
+        "25:0-4,12-16/1902:6-10" is Kappa twice and Keepo once, with inclusive ends.
+     */
+    private int[] parseEmotes(int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (line.charAt(i) == '-') count++;
+        }
+        if (count == 0) return NO_EMOTES;
+
+        int[] ranges = new int[count * 2];
+        int found = 0;
+        int textLength = line.codePointCount(textStart, line.length());
+        int i = from;
+        while (i < to) {
+            int emoteEnd = indexOf(line, '/', i, to);
+            int colon = indexOf(line, ':', i, emoteEnd);
+            int r = colon + 1;
+            while (r < emoteEnd) {
+                int rangeEnd = indexOf(line, ',', r, emoteEnd);
+                int dash = indexOf(line, '-', r, rangeEnd);
+                int start = parseIndex(r, dash);
+                int last = parseIndex(dash + 1, rangeEnd);
+                if (start < 0 || last < start || last >= textLength) return NO_EMOTES; // Not from Twitch, ignore it
+                ranges[found++] = start;
+                ranges[found++] = last + 1;
+                r = rangeEnd + 1;
+            }
+            i = emoteEnd + 1;
+        }
+        if (found < ranges.length) return NO_EMOTES;
+
+        // Grouped by emote, not in order. There are only ever a few, so an insertion sort on the pairs is plenty
+        for (int a = 2; a < ranges.length; a += 2) {
+            int start = ranges[a];
+            int end = ranges[a + 1];
+            int b = a - 2;
+            for (; b >= 0 && ranges[b] > start; b -= 2) {
+                ranges[b + 2] = ranges[b];
+                ranges[b + 3] = ranges[b + 1];
+            }
+            ranges[b + 2] = start;
+            ranges[b + 3] = end;
+        }
+
+        if (textLength != textLength()) {
+            // Something outside the BMP (eg. an emoji) before an emote shifts the chars along
+            for (int e = 0; e < ranges.length; e++) {
+                ranges[e] = line.offsetByCodePoints(textStart, ranges[e]) - textStart;
+            }
+        }
+        return ranges;
+    }
+
+    private int parseIndex(int from, int to) {
+        if (from >= to || to - from > 9) return -1;
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int indexOf(String s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) return i;
+        }
+        return to;
+    }
+
+    /*
+        Tag values escape ';', ' ', '\' and line breaks with a backslash.
+     */
+    private static String unescape(String s, int from, int to) {
+        if (indexOf(s, '\\', from, to) == to) return s.substring(from, to);
+
+        StringBuilder out = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c != '\\') {
+                out.append(c);
+            } else if (++i < to) {
+                switch (c = s.charAt(i)) {
+                    case ':': out.append(';'); break;
+                    case 's': out.append(' '); break;
+                    case 'r': out.append('\r'); break;
+                    case 'n': out.append('\n'); break;
+                    default: out.append(c);
+                }
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Sends everything the bot says in chat, without going over Twitch's message limits. Twitch allows 20 messages every
+ * 30 seconds for normal users and 100 for moderators, and going over gets the bot muted, so every line is paid for
+ * from a token bucket sized to stay under the limit for whichever one the bot currently is.
+ *
+ * Moderation actions always go out before command replies. A timeout for a user that already has one waiting is
+ * merged into it (keeping the longer duration) instead of being sent twice. Replies that can't be sent soon enough
+ * are dropped once too many are waiting, since an answer to a command from a minute ago isn't useful anyway.
+ */
+public class OutboundScheduler {
+
+    // Burst + refill over a 30 second window never adds up to more than the limit
+    private static final int NORMAL_BURST = 5;
+    private static final long NORMAL_REFILL_MILLIS = 30_000 / 15;
+    private static final int MODERATOR_BURST = 25;
+    private static final long MODERATOR_REFILL_MILLIS = 30_000 / 75;
+
+    static final int MAX_PENDING_REPLIES = 50;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final MessageSink sink;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private final Map<String, Outbound> moderation = new LinkedHashMap<>();  // Keyed so duplicates merge
+    private final ArrayDeque<Outbound> replies = new ArrayDeque<>();
+    private TokenBucket budget;
+    private boolean moderator;
+    private long droppedReplies;
+    private volatile BotMetrics metrics;
+
+    private Thread sender;
+    private volatile boolean running;
+
+    public OutboundScheduler(MessageSink sink) {
+        this(sink, System::nanoTime);
+    }
+
+    OutboundScheduler(MessageSink sink, LongSupplier clock) {
+        this.sink = sink;
+        this.clock = clock;
+        budget = newBudget(false);
+    }
+
+    public void start() {
+        running = true;
+        sender = new Thread(this::run, "outbound-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        if (sender != null) sender.interrupt();
+    }
+
+    /*
+        Records how long each line waited before it was sent.
+     */
+    void setMetrics(BotMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /*
+        Switches between the normal and moderator budgets. Should be called once we know if the bot is a mod.
+     */
+    public void setModerator(boolean moderator) {
+        lock.lock();
+        try {
+            if (this.moderator == moderator) return;
+            this.moderator = moderator;
+            // What was sent in this window still counts, a new bucket starting full would let the bot go over
+            double spent = budget.spent();
+            budget = newBudget(moderator);
+            budget.spend(spent);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isModerator() {
+        lock.lock();
+        try {
+            return moderator;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void sendMessage(String channel, String message) {
+        lock.lock();
+        try {
+            if (replies.size() >= MAX_PENDING_REPLIES) {
+                droppedReplies++;
+                logger.warn("Too many messages waiting to be sent, dropping: " + message);
+                return;
+            }
+            replies.add(new Outbound(channel, message, 0, clock.getAsLong()));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void timeout(String channel, String user, int seconds) {
+        lock.lock();
+        try {
+            String key = channel + " /timeout " + user;
+            Outbound pending = moderation.get(key);
+            if (pending == null || pending.seconds < seconds) {
+                // A merged timeout has been waiting since the first one was asked for
+                long queuedAt = pending == null ? clock.getAsLong() : pending.queuedAt;
+                moderation.put(key, new Outbound(channel, "/timeout " + user + " " + seconds, seconds, queuedAt));
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Any other moderation command (eg. /ban, /clear). Identical commands that are still waiting are only sent once.
+     */
+    public void sendModeration(String channel, String command) {
+        lock.lock();
+        try {
+            moderation.putIfAbsent(channel + " " + command, new Outbound(channel, command, 0, clock.getAsLong()));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pendingCount() {
+        lock.lock();
+        try {
+            return moderation.size() + replies.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long droppedReplies() {
+        lock.lock();
+        try {
+            return droppedReplies;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Sends the most important waiting line if the budget allows it. Returns 0 if a line was sent, -1 if nothing is
+        waiting, otherwise the number of nanoseconds until the budget has room again.
+     */
+    long sendNext() {
+        Outbound next;
+        lock.lock();
+        try {
+            if (moderation.isEmpty() && replies.isEmpty()) return -1;
+
+            long wait = budget.tryAcquire();
+            if (wait > 0) return wait;
+
+            if (!moderation.isEmpty()) {
+                Iterator<Outbound> it = moderation.values().iterator();
+                next = it.next();
+                it.remove();
+            } else {
+                next = replies.poll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        sink.send(next.channel, next.message); // Never call out while holding the lock
+        BotMetrics metrics = this.metrics;
+        if (metrics != null) metrics.outbound.record(clock.getAsLong() - next.queuedAt);
+        return 0;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                long wait = sendNext();
+                if (wait == 0) continue;
+
+                lock.lock();
+                try {
+                    if (wait < 0 && moderation.isEmpty() && replies.isEmpty()) {
+                        changed.await();
+                    } else if (wait > 0) {
+                        changed.awaitNanos(wait);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                logger.error("Error while sending a message", ex);
+            }
+        }
+    }
+
+    private TokenBucket newBudget(boolean moderator) {
+        if (moderator)
+            return new TokenBucket(MODERATOR_BURST, MODERATOR_REFILL_MILLIS, TimeUnit.MILLISECONDS, clock);
+        return new TokenBucket(NORMAL_BURST, NORMAL_REFILL_MILLIS, TimeUnit.MILLISECONDS, clock);
+    }
+
+    private static final class Outbound {
+        final String channel;
+        final String message;
+        final int seconds;
+        final long queuedAt;
+
+        Outbound(String channel, String message, int seconds, long queuedAt) {
+            this.channel = channel;
+            this.message = message;
+            this.seconds = seconds;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.github.mrtheedge.twitchbot;
+
+/**
+ * Who is allowed to do something in chat, lowest first. Anyone at or above a level has it.
+ */
+enum PermissionLevel {
+    None, Subscriber, Mod, Broadcaster
+}
@@ -0,0 +1,98 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A poll with a fixed set of options that each user can vote on once. Votes can come in from every event worker at
+ * the same time: each option's tally is a LongAdder and who has voted is kept in a UserIdSet, so counting a vote is a
+ * couple of uncontended atomic updates and never takes a lock. The results can be read at any point while the votes
+ * keep coming in.
+ */
+final class Poll {
+
+    enum VoteResult {
+        COUNTED, ALREADY_VOTED, NO_SUCH_OPTION, CLOSED
+    }
+
+    private final String title;
+    private final List<String> options;
+    private final LongAdder[] tallies;
+    private final UserIdSet voters = new UserIdSet();
+    private volatile boolean open = true;
+
+    Poll(String title, List<String> options) {
+        if (options.size() < 2) throw new IllegalArgumentException("A poll needs at least two options");
+        this.title = title;
+        this.options = Collections.unmodifiableList(new ArrayList<>(options));
+        tallies = new LongAdder[options.size()];
+        for (int i = 0; i < tallies.length; i++) tallies[i] = new LongAdder();
+    }
+
+    /*
+        Options are numbered from 1, the same as they are shown in chat.
+     */
+    VoteResult vote(int userId, int option) {
+        if (!open) return VoteResult.CLOSED;
+        if (option < 1 || option > tallies.length) return VoteResult.NO_SUCH_OPTION;
+        if (!voters.add(userId)) return VoteResult.ALREADY_VOTED;
+
+        tallies[option - 1].increment();
+        return VoteResult.COUNTED;
+    }
+
+    void close() {
+        open = false;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    List<String> getOptions() {
+        return options;
+    }
+
+    /*
+        Votes for each option so far, in option order.
+     */
+    long[] results() {
+        long[] results = new long[tallies.length];
+        for (int i = 0; i < results.length; i++) results[i] = tallies[i].sum();
+        return results;
+    }
+
+    /*
+        "Title: 1) Yes - 10 (62%), 2) No - 6 (38%)"
+     */
+    String describeResults() {
+        long[] results = results();
+        long total = 0;
+        for (long votes : results) total += votes;
+
+        StringBuilder out = new StringBuilder(title).append(':');
+        for (int i = 0; i < results.length; i++) {
+            out.append(i == 0 ? " " : ", ").append(i + 1).append(") ").append(options.get(i))
+                    .append(" - ").append(results[i]);
+            if (total > 0) out.append(" (").append(Math.round(results[i] * 100.0 / total)).append("%)");
+        }
+        return out.toString();
+    }
+
+    /*
+        "Title: 1) Yes, 2) No"
+     */
+    String describeOptions() {
+        StringBuilder out = new StringBuilder(title).append(':');
+        for (int i = 0; i < options.size(); i++) {
+            out.append(i == 0 ? " " : ", ").append(i + 1).append(") ").append(options.get(i));
+        }
+        return out.toString();
+    }
+}
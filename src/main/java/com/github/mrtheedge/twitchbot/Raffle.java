@@ -0,0 +1,168 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntToLongFunction;
+
+/**
+ * A raffle that any number of users can enter once each. Entering is a check against a UserIdSet and a compare and
+ * set on the entry count, so entries from every event worker go in at the same time and each costs the same no
+ * matter how many came before it. The entries are kept as ids in fixed size pages, never as a list of names.
+ *
+ * Closing the raffle weighs every entry once (each entry can be worth a different number of tickets, eg. by
+ * currency) and builds a Fenwick tree over the weights in linear time. Each draw then picks a ticket and finds whose it
+ * is in O(log n), and takes that entry's tickets out of the tree so the same user can't win twice.
+ */
+final class Raffle {
+
+    enum EntryResult {
+        ENTERED, ALREADY_ENTERED, CLOSED
+    }
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int CLOSED_BIT = Integer.MIN_VALUE;
+
+    private final IntToLongFunction weights;
+    private final UserIdSet entered = new UserIdSet();
+    private final AtomicInteger state = new AtomicInteger(); // Entries reserved so far, plus CLOSED_BIT once closed
+    private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[0];
+    private final Object pagesLock = new Object();
+
+    // Only used once the raffle is closed, under this
+    private int[] ids;
+    private long[] tickets;
+    private long[] tree;
+    private long remainingTickets;
+    private int remaining;
+
+    /*
+        The function gives how many tickets each user gets, it is called once per entry when the raffle closes.
+     */
+    Raffle(IntToLongFunction weights) {
+        this.weights = weights;
+    }
+
+    EntryResult enter(int userId) {
+        if (isClosed(state.get())) return EntryResult.CLOSED;
+        if (!entered.add(userId)) return EntryResult.ALREADY_ENTERED;
+
+        int slot;
+        while (true) {
+            int current = state.get();
+            if (isClosed(current)) return EntryResult.CLOSED;
+            if (state.compareAndSet(current, current + 1)) {
+                slot = current;
+                break;
+            }
+        }
+
+        pageFor(slot).set(slot & (PAGE_SIZE - 1), userId + 1); // 0 means the slot is reserved but not written yet
+        return EntryResult.ENTERED;
+    }
+
+    int entryCount() {
+        return state.get() & ~CLOSED_BIT;
+    }
+
+    boolean isOpen() {
+        return !isClosed(state.get());
+    }
+
+    /*
+        Stops taking entries and gets ready to draw. Returns how many entries there were. Calling it again does nothing.
+     */
+    synchronized int close() {
+        int count = state.getAndUpdate(s -> s | CLOSED_BIT) & ~CLOSED_BIT;
+        if (ids != null) return count;
+
+        ids = new int[count];
+        tickets = new long[count];
+        tree = new long[count + 1];
+        for (int i = 0; i < count; i++) {
+            ids[i] = entryAt(i);
+            tickets[i] = Math.max(0, weights.applyAsLong(ids[i]));
+            remainingTickets += tickets[i];
+        }
+        remaining = count;
+
+        // Each node adds itself to its parent, so the tree is built in one pass instead of one update per entry
+        for (int i = 1; i <= count; i++) {
+            tree[i] += tickets[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= count) tree[parent] += tree[i];
+        }
+        return count;
+    }
+
+    /*
+        Draws a winner who hasn't won yet, closing the raffle first if needed. Returns their id, or UserTable.NO_USER
+        if nobody with any tickets is left.
+     */
+    synchronized int draw(Random random) {
+        close();
+        if (remainingTickets <= 0) return UserTable.NO_USER;
+
+        long ticket = (long) (random.nextDouble() * remainingTickets);
+        int winner = find(Math.min(ticket, remainingTickets - 1));
+
+        long won = tickets[winner];
+        tickets[winner] = 0;
+        remainingTickets -= won;
+        remaining--;
+        for (int i = winner + 1; i < tree.length; i += i & -i) tree[i] -= won;
+        return ids[winner];
+    }
+
+    /*
+        Entries that haven't won yet.
+     */
+    synchronized int remaining() {
+        return ids == null ? entryCount() : remaining;
+    }
+
+    /*
+        The entry holding the given ticket, counting tickets from 0 in entry order.
+     */
+    private int find(long ticket) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next < tree.length && tree[next] <= ticket) {
+                position = next;
+                ticket -= tree[next];
+            }
+        }
+        return position; // Entries before it hold fewer tickets than that, so it's the one (0 based)
+    }
+
+    private int entryAt(int slot) {
+        AtomicIntegerArray page = pageFor(slot);
+        int value;
+        // Reserved before the close but maybe not written yet, the writer is only a few instructions away
+        while ((value = page.get(slot & (PAGE_SIZE - 1))) == 0) Thread.yield();
+        return value - 1;
+    }
+
+    private AtomicIntegerArray pageFor(int slot) {
+        AtomicIntegerArray[] pages = this.pages;
+        int p = slot >>> PAGE_SHIFT;
+        if (p < pages.length) return pages[p];
+
+        synchronized (pagesLock) {
+            pages = this.pages;
+            if (p < pages.length) return pages[p];
+
+            AtomicIntegerArray[] grown = Arrays.copyOf(pages, p + 1);
+            for (int i = pages.length; i <= p; i++) grown[i] = new AtomicIntegerArray(PAGE_SIZE);
+            this.pages = grown;
+            return grown[p];
+        }
+    }
+
+    private static boolean isClosed(int state) {
+        return (state & CLOSED_BIT) != 0;
+    }
+}
@@ -1,152 +1,142 @@
 package com.github.mrtheedge.twitchbot;
 
-import javafx.beans.property.SimpleBooleanProperty;
-import javafx.beans.property.SimpleDoubleProperty;
-import javafx.beans.property.SimpleIntegerProperty;
-import javafx.collections.ObservableSet;
-
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * Created by E.J. Schroeder on 11/17/2016.
  *
  * Reviews a message and determines if it meets the criteria of a spam message.
  *
+ * The settings are one immutable SpamFilterConfig, read once per message. Changing them swaps in a new one, so a
+ * moderator changing a setting never blocks or races the event workers checking messages. SpamFilterProperties
+ * exposes them to the UI.
  */
 public class SpamFilter {
 
 
-    private Map<String, Integer> userStrikes;   // Stores the number of strikes a user has from other offenses
+    private StrikeTracker userStrikes;          // Stores the number of strikes a user has from other offenses
     private Set<String> pardonedUsers;          // Stores the names of users that have a pass to post something that would be marked as spam.
-    private Set<String> blacklist;
+    private volatile Blacklist blacklist;
     private StrikeCallback strikeCallback;
+    private final CopypastaTracker copypasta;   // Recent messages from everyone, to catch the same one from many users
+    private final FloodTracker flood;           // How fast each user is posting
+    private final AtomicReference<SpamFilterConfig> config;
 
-    private SimpleIntegerProperty allowedStrikes;                 // The number of strikes before a user is timed out/banned
-    private SimpleDoubleProperty percentageCaps;              // Percentage of capital letters allowed in a message.
-    private SimpleIntegerProperty minimumWordLengthForCaps;
-    private SimpleIntegerProperty timeoutSeconds;
-    private final Pattern LINK_REGEX = Pattern.compile("(https?://)?([\\da-z\\.-]+)\\.([a-z\\.]{2,6})([/\\w \\.-]*)*/?");
+    public SpamFilter(){
+        this(SpamFilterConfig.DEFAULT);
+    }
 
-    private SimpleBooleanProperty checkForCaps;
-    private SimpleBooleanProperty checkForLinks;
-    private SimpleBooleanProperty checkBlacklist;
-    private SimpleBooleanProperty allowPardons;
-    private SimpleBooleanProperty timeoutOnStrikes;
+    public SpamFilter(SpamFilterConfig config){
+        this(config, null);
+    }
 
-    public SpamFilter(){
-        userStrikes = new HashMap<>();
-        pardonedUsers = new HashSet<>();
-        blacklist = new HashSet<>();
-
-        allowedStrikes = new SimpleIntegerProperty(3);
-        percentageCaps = new SimpleDoubleProperty(0.75);
-        minimumWordLengthForCaps = new SimpleIntegerProperty(5);
-        timeoutSeconds = new SimpleIntegerProperty(15 * 60); // 15 minutes
-
-        checkForCaps = new SimpleBooleanProperty(true);
-        checkForLinks = new SimpleBooleanProperty(true);
-        checkBlacklist = new SimpleBooleanProperty(true);
-        allowPardons = new SimpleBooleanProperty(true);
-        timeoutOnStrikes = new SimpleBooleanProperty(true);
+    /*
+        Old strikes are forgotten on the wheel. Without one, a user's old strikes stay around until their next strike.
+     */
+    SpamFilter(SpamFilterConfig config, TimerWheel wheel){
+        // Called from several event workers at once
+        userStrikes = new StrikeTracker(wheel);
+        pardonedUsers = ConcurrentHashMap.newKeySet();
+        blacklist = Blacklist.EMPTY;
+        copypasta = new CopypastaTracker();
+        flood = new FloodTracker();
+        this.config = new AtomicReference<>(Objects.requireNonNull(config));
+    }
+
+    public SpamFilterConfig getConfig(){
+        return config.get();
+    }
+
+    public void setConfig(SpamFilterConfig config){
+        this.config.set(Objects.requireNonNull(config));
+    }
+
+    /*
+        Changes some of the settings, eg. updateConfig(c -> c.toBuilder().setAllowedStrikes(5).build()). If someone
+        else changes the settings at the same time, the update is run again on theirs, so neither change is lost.
+     */
+    public SpamFilterConfig updateConfig(UnaryOperator<SpamFilterConfig> update){
+        return config.updateAndGet(c -> Objects.requireNonNull(update.apply(c)));
     }
 
     public SpamType isSpam(String nick, String message){
+        return isSpam(nick, message, 0, MessageView.NO_EMOTES);
+    }
 
-        if (checkForCaps.getValue() && messageExceedsCapsLimit(message)){
-            if (pardonedUsers.remove(nick)) // If the user has been pardoned, ignore the spam
-                return SpamType.NONE;
+    /*
+        Checks the message where it is in the raw line, leaving its emotes out of the caps and blacklist checks.
+     */
+    SpamType isSpam(MessageView message){
+        return isSpam(message.nick(), message.source(), message.textStart(), message.emotes());
+    }
 
-            addStrikeToUser(nick);
-            return SpamType.CAPS;
+    private SpamType isSpam(String nick, String source, int from, int[] emotes){
+        SpamFilterConfig config = this.config.get(); // The same settings for the whole message
+
+        // Every check is answered by the same single pass over the message
+        MessageScan scan = new MessageScan(source, from, emotes, config.isCheckBlacklist() ? blacklist : null,
+                config.isCheckForCopypasta());
+
+        // Every message counts towards the rate, even ones that turn out to be spam for some other reason
+        boolean flooding = config.isCheckForFlood() &&
+                flood.isFlooding(nick, config.getFloodMessages(), config.getFloodSeconds(), TimeUnit.SECONDS);
+
+        SpamType type = SpamType.NONE;
+        if (config.isCheckForCaps() && exceedsCapsLimit(config, scan)){
+            type = SpamType.CAPS;
+        } else if (config.isCheckForLinks() && scan.containsLink()){
+            type = SpamType.LINK;
+        } else if (config.isCheckBlacklist() && scan.containsBlacklistedWord()){
+            type = SpamType.BLACKLISTED;
+        } else if (flooding){
+            type = SpamType.FLOOD;
+        } else if (config.isCheckForCopypasta() && copypasta.isCopypasta(nick, scan, config.getCopypastaUsers(),
+                config.getCopypastaWindowSeconds(), TimeUnit.SECONDS)){
+            type = SpamType.COPYPASTA;
         }
-        if (checkForLinks.getValue() && messageContainsLink(message)){
-            if (pardonedUsers.remove(nick)) // If the user has been pardoned, ignore the spam
-                return SpamType.NONE;
 
-            addStrikeToUser(nick);
-            return SpamType.LINK;
-        }
-        if (checkBlacklist.getValue() && messageContainsBlacklistedWord(message)){
-            if (pardonedUsers.remove(nick)) // If the user has been pardoned, ignore the spam
-                return SpamType.NONE;
+        if (type == SpamType.NONE)
+            return SpamType.NONE; // If the message gets through the checks, it's not spam
 
-            addStrikeToUser(nick);
-            return SpamType.BLACKLISTED;
-        }
+        if (pardonedUsers.remove(nick)) // If the user has been pardoned, ignore the spam
+            return SpamType.NONE;
 
-        return SpamType.NONE; // If the message gets through the checks, it's not spam
+        addStrikeToUser(config, nick);
+        return type;
     }
 
     public void pardonUser(String user){
-        if (allowPardons.getValue())
+        if (config.get().isAllowPardons())
             pardonedUsers.add(user);
     }
 
-    public void addWordToBlacklist(String word){
-        blacklist.add(word);
+    public synchronized void addWordToBlacklist(String word){
+        blacklist = blacklist.with(word);
     }
 
-    public void removeWordFromBlacklist(String word){
-        blacklist.remove(word);
+    public synchronized void removeWordFromBlacklist(String word){
+        blacklist = blacklist.without(word);
     }
 
     public void registerCallback(StrikeCallback strikeCallback){
         this.strikeCallback = strikeCallback;
     }
 
-    private void addStrikeToUser(String user){
-        Integer strikes = userStrikes.get(user); // Could be null
-
-        strikes = strikes == null ? 1 : strikes + 1;
-
-        if (strikes >= allowedStrikes.getValue()){
-            // Call strikeCallback to ban/time out user...
-            userStrikes.remove(user);
-            if (strikeCallback != null && timeoutOnStrikes.getValue()) strikeCallback.call(user, timeoutSeconds.getValue());
-        } else {
-            userStrikes.put(user, strikes); // Otherwise, update the users strike count to new value
-        }
-    }
-
-    private boolean messageContainsBlacklistedWord(String message){ // Could probably use some improvement, but...
-        String[] words = message.split(" ");
-        for (String w : words){
-            if (blacklist.contains(w)) return true;
-        }
-        return false;
-    }
-
-    private boolean messageExceedsCapsLimit(String message){
-
-        int msgLength = message.length();
-        int capsCount = 0;
-        double percentage;
-
-        if ( msgLength > minimumWordLengthForCaps.getValue()){
-
-            // Counting number of capital characters
-            for (int i = 0; i < msgLength; i++) {
-                if (Character.isUpperCase(message.charAt(i))) capsCount++;
-            }
-
-            percentage = ((double) capsCount) / msgLength; // Calculate caps percentage
-
-            if (percentage > percentageCaps.getValue())
-                return true;
-        }
-        return false;
+    private void addStrikeToUser(SpamFilterConfig config, String user){
+        boolean reachedLimit = userStrikes.addStrike(user, config.getAllowedStrikes(),
+                config.getStrikeDecayMinutes(), TimeUnit.MINUTES);
 
+        // Call strikeCallback to ban/time out user...
+        if (reachedLimit && strikeCallback != null && config.isTimeoutOnStrikes())
+            strikeCallback.call(user, config.getTimeoutSeconds());
     }
 
-    private boolean messageContainsLink(String message){
-        return LINK_REGEX.matcher(message).find();
+    private static boolean exceedsCapsLimit(SpamFilterConfig config, MessageScan scan){
+        return scan.length() > config.getMinimumWordLengthForCaps() && scan.capsRatio() > config.getPercentageCaps();
     }
 }
-
-enum SpamType {
-    NONE, CAPS, LINK, BLACKLISTED
-}
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.github.mrtheedge.twitchbot;
+
+/**
+ * Every setting of a SpamFilter, as one immutable snapshot. The filter reads its snapshot once per message, so a
+ * message is always checked against one consistent set of settings, and a change is made by building a new snapshot
+ * (see toBuilder()) and swapping it in.
+ */
+public final class SpamFilterConfig {
+
+    public static final SpamFilterConfig DEFAULT = new Builder().build();
+
+    private final int allowedStrikes;
+    private final double percentageCaps;
+    private final int minimumWordLengthForCaps;
+    private final int timeoutSeconds;
+    private final int strikeDecayMinutes;
+    private final int copypastaUsers;
+    private final int copypastaWindowSeconds;
+    private final int floodMessages;
+    private final int floodSeconds;
+
+    private final boolean checkForCaps;
+    private final boolean checkForLinks;
+    private final boolean checkBlacklist;
+    private final boolean checkForCopypasta;
+    private final boolean checkForFlood;
+    private final boolean allowPardons;
+    private final boolean timeoutOnStrikes;
+
+    private SpamFilterConfig(Builder b) {
+        allowedStrikes = b.allowedStrikes;
+        percentageCaps = b.percentageCaps;
+        minimumWordLengthForCaps = b.minimumWordLengthForCaps;
+        timeoutSeconds = b.timeoutSeconds;
+        strikeDecayMinutes = b.strikeDecayMinutes;
+        copypastaUsers = b.copypastaUsers;
+        copypastaWindowSeconds = b.copypastaWindowSeconds;
+        floodMessages = b.floodMessages;
+        floodSeconds = b.floodSeconds;
+        checkForCaps = b.checkForCaps;
+        checkForLinks = b.checkForLinks;
+        checkBlacklist = b.checkBlacklist;
+        checkForCopypasta = b.checkForCopypasta;
+        checkForFlood = b.checkForFlood;
+        allowPardons = b.allowPardons;
+        timeoutOnStrikes = b.timeoutOnStrikes;
+    }
+
+    /*
+        A builder with these settings, to change some of them.
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .setAllowedStrikes(allowedStrikes)
+                .setPercentageCaps(percentageCaps)
+                .setMinimumWordLengthForCaps(minimumWordLengthForCaps)
+                .setTimeoutSeconds(timeoutSeconds)
+                .setStrikeDecayMinutes(strikeDecayMinutes)
+                .setCopypastaUsers(copypastaUsers)
+                .setCopypastaWindowSeconds(copypastaWindowSeconds)
+                .setFloodMessages(floodMessages)
+                .setFloodSeconds(floodSeconds)
+                .setCheckForCaps(checkForCaps)
+                .setCheckForLinks(checkForLinks)
+                .setCheckBlacklist(checkBlacklist)
+                .setCheckForCopypasta(checkForCopypasta)
+                .setCheckForFlood(checkForFlood)
+                .setAllowPardons(allowPardons)
+                .setTimeoutOnStrikes(timeoutOnStrikes);
+    }
+
+    public int getAllowedStrikes() {
+        return allowedStrikes;
+    }
+
+    public double getPercentageCaps() {
+        return percentageCaps;
+    }
+
+    public int getMinimumWordLengthForCaps() {
+        return minimumWordLengthForCaps;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public int getStrikeDecayMinutes() {
+        return strikeDecayMinutes;
+    }
+
+    public int getCopypastaUsers() {
+        return copypastaUsers;
+    }
+
+    public int getCopypastaWindowSeconds() {
+        return copypastaWindowSeconds;
+    }
+
+    public int getFloodMessages() {
+        return floodMessages;
+    }
+
+    public int getFloodSeconds() {
+        return floodSeconds;
+    }
+
+    public boolean isCheckForCaps() {
+        return checkForCaps;
+    }
+
+    public boolean isCheckForLinks() {
+        return checkForLinks;
+    }
+
+    public boolean isCheckBlacklist() {
+        return checkBlacklist;
+    }
+
+    public boolean isCheckForCopypasta() {
+        return checkForCopypasta;
+    }
+
+    public boolean isCheckForFlood() {
+        return checkForFlood;
+    }
+
+    public boolean isAllowPardons() {
+        return allowPardons;
+    }
+
+    public boolean isTimeoutOnStrikes() {
+        return timeoutOnStrikes;
+    }
+
+    public static final class Builder {
+        private int allowedStrikes = 3;                 // The number of strikes before a user is timed out/banned
+        private double percentageCaps = 0.75;           // Percentage of capital letters allowed in a message.
+        private int minimumWordLengthForCaps = 5;
+        private int timeoutSeconds = 15 * 60;           // 15 minutes
+        private int strikeDecayMinutes = 10;            // Strikes are forgotten after this long without a new one
+        private int copypastaUsers = 3;                 // How many users posting the same thing makes it copypasta
+        private int copypastaWindowSeconds = 30;
+        private int floodMessages = 8;                  // More messages than this from one user within floodSeconds is a flood
+        private int floodSeconds = 10;
+
+        private boolean checkForCaps = true;
+        private boolean checkForLinks = true;
+        private boolean checkBlacklist = true;
+        private boolean checkForCopypasta = true;
+        private boolean checkForFlood = true;
+        private boolean allowPardons = true;
+        private boolean timeoutOnStrikes = true;
+
+        public Builder setAllowedStrikes(int allowedStrikes) {
+            this.allowedStrikes = atLeast(1, allowedStrikes, "allowedStrikes");
+            return this;
+        }
+
+        public Builder setPercentageCaps(double percentageCaps) {
+            if (!(percentageCaps >= 0 && percentageCaps <= 1))
+                throw new IllegalArgumentException("percentageCaps must be between 0 and 1");
+            this.percentageCaps = percentageCaps;
+            return this;
+        }
+
+        public Builder setMinimumWordLengthForCaps(int minimumWordLengthForCaps) {
+            this.minimumWordLengthForCaps = atLeast(0, minimumWordLengthForCaps, "minimumWordLengthForCaps");
+            return this;
+        }
+
+        public Builder setTimeoutSeconds(int timeoutSeconds) {
+            this.timeoutSeconds = atLeast(1, timeoutSeconds, "timeoutSeconds");
+            return this;
+        }
+
+        public Builder setStrikeDecayMinutes(int strikeDecayMinutes) {
+            this.strikeDecayMinutes = atLeast(1, strikeDecayMinutes, "strikeDecayMinutes");
+            return this;
+        }
+
+        public Builder setCopypastaUsers(int copypastaUsers) {
+            this.copypastaUsers = atLeast(2, copypastaUsers, "copypastaUsers");
+            return this;
+        }
+
+        public Builder setCopypastaWindowSeconds(int copypastaWindowSeconds) {
+            this.copypastaWindowSeconds = atLeast(1, copypastaWindowSeconds, "copypastaWindowSeconds");
+            return this;
+        }
+
+        public Builder setFloodMessages(int floodMessages) {
+            this.floodMessages = atLeast(1, floodMessages, "floodMessages");
+            return this;
+        }
+
+        public Builder setFloodSeconds(int floodSeconds) {
+            this.floodSeconds = atLeast(1, floodSeconds, "floodSeconds");
+            return this;
+        }
+
+        public Builder setCheckForCaps(boolean checkForCaps) {
+            this.checkForCaps = checkForCaps;
+            return this;
+        }
+
+        public Builder setCheckForLinks(boolean checkForLinks) {
+            this.checkForLinks = checkForLinks;
+            return this;
+        }
+
+        public Builder setCheckBlacklist(boolean checkBlacklist) {
+            this.checkBlacklist = checkBlacklist;
+            return this;
+        }
+
+        public Builder setCheckForCopypasta(boolean checkForCopypasta) {
+            this.checkForCopypasta = checkForCopypasta;
+            return this;
+        }
+
+        public Builder setCheckForFlood(boolean checkForFlood) {
+            this.checkForFlood = checkForFlood;
+            return this;
+        }
+
+        public Builder setAllowPardons(boolean allowPardons) {
+            this.allowPardons = allowPardons;
+            return this;
+        }
+
+        public Builder setTimeoutOnStrikes(boolean timeoutOnStrikes) {
+            this.timeoutOnStrikes = timeoutOnStrikes;
+            return this;
+        }
+
+        public SpamFilterConfig build() {
+            return new SpamFilterConfig(this);
+        }
+
+        private static int atLeast(int minimum, int value, String name) {
+            if (value < minimum) throw new IllegalArgumentException(name + " must be at least " + minimum);
+            return value;
+        }
+    }
+}
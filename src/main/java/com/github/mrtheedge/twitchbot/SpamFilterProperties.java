@@ -0,0 +1,168 @@
+package com.github.mrtheedge.twitchbot;
+
+import javafx.beans.property.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * The settings of a SpamFilter as JavaFX properties, for the UI to bind its controls to. Setting a property swaps a
+ * new SpamFilterConfig into the filter, and a value the config won't take (eg. 0 allowed strikes) is put back the way
+ * it was. The filter itself never touches these properties, so the headless bot doesn't need JavaFX at all.
+ *
+ * Changes made to the filter some other way (eg. from chat) show up after reload(). Use the properties from the
+ * JavaFX application thread, like any other.
+ */
+public class SpamFilterProperties {
+
+    private final SpamFilter filter;
+    private final List<Runnable> reloads = new ArrayList<>();
+
+    private final IntegerProperty allowedStrikes;
+    private final DoubleProperty percentageCaps;
+    private final IntegerProperty minimumWordLengthForCaps;
+    private final IntegerProperty timeoutSeconds;
+    private final IntegerProperty strikeDecayMinutes;
+    private final IntegerProperty copypastaUsers;
+    private final IntegerProperty copypastaWindowSeconds;
+    private final IntegerProperty floodMessages;
+    private final IntegerProperty floodSeconds;
+
+    private final BooleanProperty checkForCaps;
+    private final BooleanProperty checkForLinks;
+    private final BooleanProperty checkBlacklist;
+    private final BooleanProperty checkForCopypasta;
+    private final BooleanProperty checkForFlood;
+    private final BooleanProperty allowPardons;
+    private final BooleanProperty timeoutOnStrikes;
+
+    public SpamFilterProperties(SpamFilter filter) {
+        this.filter = filter;
+
+        allowedStrikes = bind(new SimpleIntegerProperty(this, "allowedStrikes"),
+                SpamFilterConfig::getAllowedStrikes, (b, v) -> b.setAllowedStrikes(v.intValue()));
+        percentageCaps = bind(new SimpleDoubleProperty(this, "percentageCaps"),
+                SpamFilterConfig::getPercentageCaps, (b, v) -> b.setPercentageCaps(v.doubleValue()));
+        minimumWordLengthForCaps = bind(new SimpleIntegerProperty(this, "minimumWordLengthForCaps"),
+                SpamFilterConfig::getMinimumWordLengthForCaps, (b, v) -> b.setMinimumWordLengthForCaps(v.intValue()));
+        timeoutSeconds = bind(new SimpleIntegerProperty(this, "timeoutSeconds"),
+                SpamFilterConfig::getTimeoutSeconds, (b, v) -> b.setTimeoutSeconds(v.intValue()));
+        strikeDecayMinutes = bind(new SimpleIntegerProperty(this, "strikeDecayMinutes"),
+                SpamFilterConfig::getStrikeDecayMinutes, (b, v) -> b.setStrikeDecayMinutes(v.intValue()));
+        copypastaUsers = bind(new SimpleIntegerProperty(this, "copypastaUsers"),
+                SpamFilterConfig::getCopypastaUsers, (b, v) -> b.setCopypastaUsers(v.intValue()));
+        copypastaWindowSeconds = bind(new SimpleIntegerProperty(this, "copypastaWindowSeconds"),
+                SpamFilterConfig::getCopypastaWindowSeconds, (b, v) -> b.setCopypastaWindowSeconds(v.intValue()));
+        floodMessages = bind(new SimpleIntegerProperty(this, "floodMessages"),
+                SpamFilterConfig::getFloodMessages, (b, v) -> b.setFloodMessages(v.intValue()));
+        floodSeconds = bind(new SimpleIntegerProperty(this, "floodSeconds"),
+                SpamFilterConfig::getFloodSeconds, (b, v) -> b.setFloodSeconds(v.intValue()));
+
+        checkForCaps = bind(new SimpleBooleanProperty(this, "checkForCaps"),
+                SpamFilterConfig::isCheckForCaps, SpamFilterConfig.Builder::setCheckForCaps);
+        checkForLinks = bind(new SimpleBooleanProperty(this, "checkForLinks"),
+                SpamFilterConfig::isCheckForLinks, SpamFilterConfig.Builder::setCheckForLinks);
+        checkBlacklist = bind(new SimpleBooleanProperty(this, "checkBlacklist"),
+                SpamFilterConfig::isCheckBlacklist, SpamFilterConfig.Builder::setCheckBlacklist);
+        checkForCopypasta = bind(new SimpleBooleanProperty(this, "checkForCopypasta"),
+                SpamFilterConfig::isCheckForCopypasta, SpamFilterConfig.Builder::setCheckForCopypasta);
+        checkForFlood = bind(new SimpleBooleanProperty(this, "checkForFlood"),
+                SpamFilterConfig::isCheckForFlood, SpamFilterConfig.Builder::setCheckForFlood);
+        allowPardons = bind(new SimpleBooleanProperty(this, "allowPardons"),
+                SpamFilterConfig::isAllowPardons, SpamFilterConfig.Builder::setAllowPardons);
+        timeoutOnStrikes = bind(new SimpleBooleanProperty(this, "timeoutOnStrikes"),
+                SpamFilterConfig::isTimeoutOnStrikes, SpamFilterConfig.Builder::setTimeoutOnStrikes);
+    }
+
+    /*
+        Sets every property to what the filter is using now.
+     */
+    public void reload() {
+        for (Runnable reload : reloads) reload.run();
+    }
+
+    public IntegerProperty allowedStrikesProperty() {
+        return allowedStrikes;
+    }
+
+    public DoubleProperty percentageCapsProperty() {
+        return percentageCaps;
+    }
+
+    public IntegerProperty minimumWordLengthForCapsProperty() {
+        return minimumWordLengthForCaps;
+    }
+
+    public IntegerProperty timeoutSecondsProperty() {
+        return timeoutSeconds;
+    }
+
+    public IntegerProperty strikeDecayMinutesProperty() {
+        return strikeDecayMinutes;
+    }
+
+    public IntegerProperty copypastaUsersProperty() {
+        return copypastaUsers;
+    }
+
+    public IntegerProperty copypastaWindowSecondsProperty() {
+        return copypastaWindowSeconds;
+    }
+
+    public IntegerProperty floodMessagesProperty() {
+        return floodMessages;
+    }
+
+    public IntegerProperty floodSecondsProperty() {
+        return floodSeconds;
+    }
+
+    public BooleanProperty checkForCapsProperty() {
+        return checkForCaps;
+    }
+
+    public BooleanProperty checkForLinksProperty() {
+        return checkForLinks;
+    }
+
+    public BooleanProperty checkBlacklistProperty() {
+        return checkBlacklist;
+    }
+
+    public BooleanProperty checkForCopypastaProperty() {
+        return checkForCopypasta;
+    }
+
+    public BooleanProperty checkForFloodProperty() {
+        return checkForFlood;
+    }
+
+    public BooleanProperty allowPardonsProperty() {
+        return allowPardons;
+    }
+
+    public BooleanProperty timeoutOnStrikesProperty() {
+        return timeoutOnStrikes;
+    }
+
+    /*
+        Starts the property at the filter's value and has every change to it update the filter.
+     */
+    private <T, P extends Property<T>> P bind(P property, Function<SpamFilterConfig, T> get,
+                                              BiFunction<SpamFilterConfig.Builder, T, SpamFilterConfig.Builder> set) {
+        Runnable reload = () -> property.setValue(get.apply(filter.getConfig()));
+        reload.run();
+        reloads.add(reload);
+
+        property.addListener((observable, old, value) -> {
+            try {
+                filter.updateConfig(c -> set.apply(c.toBuilder(), value).build());
+            } catch (IllegalArgumentException ex) {
+                property.setValue(old); // Not a setting the filter can use, keep the last one that was
+            }
+        });
+        return property;
+    }
+}
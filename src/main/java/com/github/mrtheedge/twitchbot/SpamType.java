@@ -0,0 +1,8 @@
+package com.github.mrtheedge.twitchbot;
+
+/**
+ * What a message was caught for by the SpamFilter, or NONE if it's fine.
+ */
+enum SpamType {
+    NONE, CAPS, LINK, BLACKLISTED, COPYPASTA, FLOOD
+}
@@ -0,0 +1,83 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts strikes per user, and forgets them once a user has gone a full decay window without a new one. Safe to use
+ * from any number of threads. Each update only locks the user's own bin of the map, so two users never wait on
+ * each other.
+ *
+ * Expiry runs on the shared TimerWheel: every strike schedules its user's removal for the end of the window and
+ * cancels the one before, so there is only ever one pending expiry per user and nobody has to get a strike for the
+ * others to be forgotten. Memory stays proportional to the users that got a strike within the last window.
+ *
+ * Without a wheel (eg. a SpamFilter made on its own) strikes still stop counting once they are too old, but the user
+ * is only taken out of the map by their next strike.
+ */
+final class StrikeTracker {
+
+    private final ConcurrentHashMap<String, Strikes> strikes = new ConcurrentHashMap<>();
+    private final TimerWheel wheel;     // May be null
+    private final LongSupplier clock;
+
+    StrikeTracker(TimerWheel wheel) {
+        this(wheel, System::nanoTime);
+    }
+
+    StrikeTracker(TimerWheel wheel, LongSupplier clock) {
+        this.wheel = wheel;
+        this.clock = clock;
+    }
+
+    /*
+        Adds a strike and returns true if the user has now reached the limit, in which case their strikes are
+        cleared. Strikes older than the decay window don't count.
+     */
+    boolean addStrike(String user, int allowedStrikes, long decayWindow, TimeUnit unit) {
+        long now = clock.getAsLong();
+        long expiresAt = now + unit.toNanos(decayWindow);
+
+        Strikes updated = strikes.compute(user, (k, s) -> {
+            int count = (s == null || s.expiresAt <= now) ? 1 : s.count + 1;
+            if (s != null) s.cancelExpiry();
+            if (count >= allowedStrikes) return null;
+
+            Strikes next = new Strikes(count, expiresAt);
+            // Only removes this entry, so it's harmless if it runs just as a newer strike replaces it
+            if (wheel != null) next.expiry = wheel.schedule(() -> strikes.remove(user, next), decayWindow, unit);
+            return next;
+        });
+        return updated == null;
+    }
+
+    int strikesFor(String user) {
+        Strikes s = strikes.get(user);
+        return (s == null || s.expiresAt <= clock.getAsLong()) ? 0 : s.count;
+    }
+
+    void clear(String user) {
+        Strikes s = strikes.remove(user);
+        if (s != null) s.cancelExpiry();
+    }
+
+    int trackedUsers() {
+        return strikes.size();
+    }
+
+    private static final class Strikes {
+        final int count;
+        final long expiresAt;
+        TimerWheel.Timeout expiry; // Only set while holding the user's bin, in compute()
+
+        Strikes(int count, long expiresAt) {
+            this.count = count;
+            this.expiresAt = expiresAt;
+        }
+
+        void cancelExpiry() {
+            if (expiry != null) expiry.cancel();
+        }
+    }
+}
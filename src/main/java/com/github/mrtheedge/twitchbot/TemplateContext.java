@@ -0,0 +1,22 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.List;
+
+/**
+ * Everything a command template can refer to while it is being rendered: who called it, what they passed, and where
+ * to look up their data.
+ */
+final class TemplateContext {
+
+    final String nick;
+    final List<String> args;
+    final UserDataManager dataSource;  // May be null
+    final Command command;
+
+    TemplateContext(String nick, List<String> args, UserDataManager dataSource, Command command) {
+        this.nick = nick;
+        this.args = args;
+        this.dataSource = dataSource;
+        this.command = command;
+    }
+}
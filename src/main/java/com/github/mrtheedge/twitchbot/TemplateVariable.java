@@ -0,0 +1,11 @@
+package com.github.mrtheedge.twitchbot;
+
+/**
+ * Fills in one variable of a command template, eg. {@code <points>}. The arguments are the ones written in the
+ * template itself, eg. {@code <arg(2)>}, split up when the command was created.
+ */
+interface TemplateVariable {
+
+    void append(StringBuilder out, String[] templateArgs, TemplateContext context);
+
+}
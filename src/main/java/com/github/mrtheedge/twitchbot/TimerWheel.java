@@ -0,0 +1,216 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs one-shot tasks after a delay, for any number of tasks, from a single thread. It is a hashed timing wheel: each
+ * task goes into the slot for the tick it is due on, along with how many more times the wheel has to go around
+ * before it's really due. Every tick only looks at one slot, so scheduling, cancelling and ticking are all O(1) no
+ * matter how many tasks are waiting.
+ *
+ * Only the driver thread ever touches the slots. Other threads hand it new and cancelled tasks through queues that
+ * it empties at the start of every tick. Tasks run on the driver thread, so they should be quick and hand anything
+ * slow off to somewhere else.
+ */
+final class TimerWheel {
+
+    private static final int SLOTS = 512;
+    private static final int MASK = SLOTS - 1;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Slot[] wheel = new Slot[SLOTS];
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final long tickNanos;
+    private final long startedAt;
+    private final LongSupplier clock;
+    private long currentTick = -1; // Last tick that was processed, only used by the driver
+    private int waiting;           // Tasks in the slots, only used by the driver
+
+    private Thread driver;
+    private volatile boolean running;
+
+    TimerWheel() {
+        this(1, TimeUnit.SECONDS, System::nanoTime);
+    }
+
+    TimerWheel(long tick, TimeUnit unit, LongSupplier clock) {
+        this.tickNanos = unit.toNanos(tick);
+        this.clock = clock;
+        this.startedAt = clock.getAsLong();
+        for (int i = 0; i < SLOTS; i++) wheel[i] = new Slot();
+    }
+
+    void start() {
+        running = true;
+        driver = new Thread(this::run, "timer-wheel");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    void shutdown() {
+        running = false;
+        if (driver != null) driver.interrupt();
+    }
+
+    /*
+        Runs the task once, no sooner than the delay from now. Rounded up to the next tick.
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long elapsed = clock.getAsLong() - startedAt + unit.toNanos(delay);
+        Timeout timeout = new Timeout(this, task, (elapsed + tickNanos - 1) / tickNanos);
+        added.add(timeout);
+        return timeout;
+    }
+
+    /*
+        Processes every tick that has passed and returns how many tasks ran. Called by the driver thread, or by
+        tests that drive the clock themselves.
+     */
+    int advance() {
+        long target = (clock.getAsLong() - startedAt) / tickNanos;
+        int ran = 0;
+        while (currentTick < target) {
+            currentTick++;
+            transferAdded();
+            removeCancelled();
+            ran += expire(wheel[(int) (currentTick & MASK)]);
+        }
+        return ran;
+    }
+
+    /*
+        Tasks that are scheduled and haven't run or been cancelled yet. Only accurate from the driver thread.
+     */
+    int waitingCount() {
+        return waiting + added.size();
+    }
+
+    private void transferAdded() {
+        Timeout t;
+        while ((t = added.poll()) != null) {
+            if (t.state.get() != Timeout.WAITING) continue;
+
+            // Anything that's already late goes into the current slot
+            long due = Math.max(t.deadlineTick, currentTick);
+            t.rounds = (due - currentTick) / SLOTS;
+            wheel[(int) (due & MASK)].add(t);
+            waiting++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.slot != null) {
+                t.slot.remove(t);
+                waiting--;
+            }
+        }
+    }
+
+    private int expire(Slot slot) {
+        int ran = 0;
+        Timeout t = slot.head;
+        while (t != null) {
+            Timeout next = t.next;
+            if (t.rounds > 0) {
+                t.rounds--;
+            } else {
+                slot.remove(t);
+                waiting--;
+                if (t.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+                    ran++;
+                    try {
+                        t.task.run();
+                    } catch (RuntimeException ex) {
+                        logger.error("Timer task failed", ex);
+                    }
+                }
+            }
+            t = next;
+        }
+        return ran;
+    }
+
+    private void run() {
+        while (running) {
+            advance();
+            long nextTickAt = startedAt + (currentTick + 1) * tickNanos;
+            long wait = nextTickAt - clock.getAsLong();
+            if (wait > 0) LockSupport.parkNanos(this, wait);
+        }
+    }
+
+    /*
+        A scheduled task. Cancelling it is safe from any thread.
+     */
+    static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        // Only used by the driver thread
+        private long rounds;
+        private Slot slot;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /*
+            Returns false if the task already ran or was already cancelled.
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) return false;
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    /*
+        Doubly linked so a cancelled task can be taken out without walking the slot.
+     */
+    private static final class Slot {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout t) {
+            t.slot = this;
+            t.prev = tail;
+            t.next = null;
+            if (tail == null) head = t; else tail.next = t;
+            tail = t;
+        }
+
+        void remove(Timeout t) {
+            if (t.slot != this) return;
+            if (t.prev == null) head = t.next; else t.prev.next = t.next;
+            if (t.next == null) tail = t.prev; else t.next.prev = t.prev;
+            t.slot = null;
+            t.prev = null;
+            t.next = null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Classic token bucket. Holds up to capacity tokens and gains a new one every refillNanos. Not thread safe on its
+ * own, the owner is expected to guard it.
+ */
+final class TokenBucket {
+
+    private final int capacity;
+    private final long refillNanos;
+    private final LongSupplier clock;
+
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(int capacity, long refillPeriod, TimeUnit unit, LongSupplier clock) {
+        if (capacity < 1 || refillPeriod <= 0)
+            throw new IllegalArgumentException("capacity and refillPeriod must be positive");
+
+        this.capacity = capacity;
+        this.refillNanos = unit.toNanos(refillPeriod);
+        this.clock = clock;
+        this.tokens = capacity;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /*
+        Takes a token if there is one and returns 0. Otherwise returns how many nanoseconds until the next token.
+     */
+    long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) ((1 - tokens) * refillNanos));
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /*
+        How many tokens have been taken and not refilled yet.
+     */
+    double spent() {
+        refill();
+        return capacity - tokens;
+    }
+
+    /*
+        Takes tokens without sending anything, eg. ones already spent from a bigger bucket. That can leave it owing
+        tokens, which have to refill before anything else goes out.
+     */
+    void spend(double spent) {
+        refill();
+        tokens -= Math.max(0, spent);
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) return;
+
+        tokens = Math.min(capacity, tokens + ((double) elapsed) / refillNanos);
+        lastRefill = now;
+    }
+}
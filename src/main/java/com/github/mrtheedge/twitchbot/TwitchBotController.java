@@ -1,7 +1,8 @@
 package com.github.mrtheedge.twitchbot;
 
-import com.github.mrtheedge.twitchbot.exceptions.NoSuchCommandException;
+import org.pircbotx.Channel;
 import org.pircbotx.Configuration;
+import org.pircbotx.InputParser;
 import org.pircbotx.PircBotX;
 import org.pircbotx.User;
 import org.pircbotx.cap.EnableCapHandler;
@@ -11,34 +12,48 @@ import org.pircbotx.hooks.events.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
 import java.io.IOException;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by E.J. Schroeder on 11/15/2016.
  *
  * The main model behind the application. Also functions as a listener for the actual IRC bot.
+ *
+ * One connection serves every channel. Each channel has its own ChannelShard, and the work for each event runs on
+ * the shared worker threads, so adding channels uses more cores instead of more processes.
  */
 public class TwitchBotController extends ListenerAdapter {
 
-    private SpamFilter spamFilter;
-    private UserDataManager userDataManager;
-    private CommandManager commandManager;
+    private final Map<String, ChannelShard> channels = new ConcurrentHashMap<>();
+    private final Set<String> moderatedChannels = ConcurrentHashMap.newKeySet();
+    private EventPipeline pipeline;         // Does the actual work for each event, off of the listener thread
+    private OutboundScheduler outbound;     // Everything the bot says goes through here to stay under the rate limit
+    private TimerWheel timers;              // Runs the chat timers for every channel
+    private ExecutorService chattersLoader; // Loads who is already in chat when the bot joins, off of the chat threads
+    private ExecutorService channelCloser;  // Saves and closes channels the bot has left, off of the chat threads
+    private volatile String chattersUrl;    // Template with %s for the channel name, or null to not load them
+    private final BotMetrics metrics = new BotMetrics(); // Shared by every channel
+    private volatile boolean sampling;
+    private MetricsEndpoint metricsEndpoint;
     private PircBotX bot;
-    private String channel = Secrets.CHANNEL_NAME;
-    private String username = Secrets.USER_NAME;
-    private String oauth = Secrets.OAUTH_TOKEN;
+    private String username;
 
     private Logger logger;
 
-    // https://tmi.twitch.tv/group/user/CHANNELNAME/chatters
-    // Use this to get the initial list of viewers when we enter chat...
+    private static final String MODS_NOTICE = "The moderators of this channel are:";
 
 
     @Override
     public void onConnect(ConnectEvent event) throws Exception {
-        bot.send().message(channel, "/mods");
+        for (String channel : channels.keySet()){
+            outbound.sendMessage(channel, "/mods"); // The answer comes back as a notice, see onNotice
+        }
     }
 
     @Override
@@ -51,58 +66,115 @@ public class TwitchBotController extends ListenerAdapter {
 
     }
 
-    @Override
-    public void onMessage(MessageEvent event) throws Exception {
-        User user = event.getUser();
-        if (user == null) return;
-
-        if (event.getMessage().equals("!disconnect")){
-            // Only the broadcaster should be able to disconnect
-            logger.info("Received !disconnect from chat. Disconnecting.");
-            if (user.getNick().equals(channel.substring(1))) {
-                bot.send().quitServer();
-                return;
-            }
-        }
+    /*
+        Called on the IRC reader thread for each chat message, see ChatInputParser. False hands it back to PircBotX.
+     */
+    private boolean onChat(MessageView message) {
+        ChannelShard shard = channels.get(message.channel());
+        if (shard == null) return false;
 
-        userDataManager.newMessage(user.getNick()); // Add the latest messages timestamp for the user
+        pipeline.submit(shard.getChannel(), message.nick(), () -> handleMessage(shard, message), true);
+        return true;
+    }
 
-        String commandResponse = "";
-        if (event.getMessage().startsWith("!")){
-            String trimmedLine = event.getMessage().substring(1); // Trim off the '!'
-            try {
-                commandResponse = commandManager.parseCommand(trimmedLine, event.getTags());
-            } catch (NoSuchCommandException ex){
-                logger.error("No Such Command: " + trimmedLine);
-                ex.printStackTrace();
+    private void handleMessage(ChannelShard shard, MessageView message) {
+        if (message.textEquals("!disconnect")){
+            // Only the broadcaster should be able to disconnect, and only from their own channel
+            if (message.nick().equals(shard.getChannel().substring(1))) {
+                logger.info("Received !disconnect from " + shard.getChannel() + ". Leaving the channel.");
+                leaveChannel(shard.getChannel());
+                return;
             }
         }
 
-        if (commandResponse.equals("")){
-            // Either no command or the command was invalid. Prevents bypassing the spam filter with a '!'
-            SpamType type = spamFilter.isSpam(user.getNick(), event.getMessage());
-        }
+        shard.handleMessage(message);
     }
 
     @Override
     public void onNotice(NoticeEvent event) throws Exception {
-
+        String notice = event.getNotice();
+        ChannelShard shard = shardFor(event.getChannel());
+        if (shard != null && notice.startsWith(MODS_NOTICE)){
+            // Reply to /mods, the bot gets a bigger message budget if it is a mod everywhere it talks
+            boolean isMod = false;
+            for (String mod : notice.substring(MODS_NOTICE.length()).split(",")){
+                if (mod.trim().equalsIgnoreCase(username)) isMod = true;
+            }
+            if (isMod) {
+                moderatedChannels.add(shard.getChannel());
+            } else {
+                moderatedChannels.remove(shard.getChannel());
+            }
+            outbound.setModerator(moderatedChannels.containsAll(channels.keySet()));
+        }
     }
 
     @Override
     public void onJoin(JoinEvent event) throws Exception {
         User u = event.getUser();
-        if (u == null) return;
+        ChannelShard shard = shardFor(event.getChannel());
+        if (u == null || shard == null) return;
 
-        userDataManager.join(u.getNick());
+        String nick = u.getNick();
+        if (nick.equalsIgnoreCase(username)) loadChatters(shard); // The bot's own join, get everyone who's already here
+        pipeline.submit(shard.getChannel(), nick, () -> shard.join(nick), false);
+    }
+
+    /*
+        Where to get the list of viewers already in chat when the bot joins a channel, as a URL with %s where the
+        channel name goes. A file: URL works too. Null turns it off.
+     */
+    public void setChattersUrl(String template) {
+        chattersUrl = template;
+    }
+
+    public BotMetrics getMetrics() {
+        return metrics;
+    }
+
+    /*
+        Serves the metrics as text at http://localhost:{port}/metrics. Port 0 picks a free one, the port used is
+        returned.
+     */
+    public synchronized int startMetricsEndpoint(int port) throws IOException {
+        if (metricsEndpoint == null) {
+            metricsEndpoint = new MetricsEndpoint(metrics, port);
+            metricsEndpoint.start();
+            logger.info("Serving metrics on http://localhost:" + metricsEndpoint.port() + "/metrics");
+        }
+        return metricsEndpoint.port();
+    }
+
+    private void sampleMetrics() {
+        if (!sampling) return;
+
+        metrics.sample(System.nanoTime());
+        timers.schedule(this::sampleMetrics, 1, TimeUnit.SECONDS);
+    }
+
+    private void loadChatters(ChannelShard shard) {
+        String template = chattersUrl;
+        if (template == null) return;
+
+        chattersLoader.execute(() -> {
+            try {
+                shard.loadChatters(ChattersLoader.urlFor(template, shard.getChannel()), pipeline);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt(); // Shutting down
+            } catch (IOException | RuntimeException ex) {
+                logger.warn("Could not load the chatters for " + shard.getChannel() + ", users will be added as they join", ex);
+            }
+        });
     }
 
     @Override
     public void onPart(PartEvent event) throws Exception {
         User u = event.getUser();
-        if (u == null) return;
+        ChannelShard shard = shardFor(event.getChannel());
+        if (u == null || shard == null) return;
 
-        userDataManager.part(u.getNick());
+        String nick = u.getNick();
+        pipeline.submit(shard.getChannel(), nick, () -> shard.part(nick), false);
     }
 
     @Override
@@ -120,37 +192,151 @@ public class TwitchBotController extends ListenerAdapter {
             bot.startBot();
         } catch (IOException | IrcException e) {
             e.printStackTrace();
+        } finally {
+            shutdown();
         }
     }
 
+    public void disconnect() {
+        bot.stopBotReconnect();
+        bot.sendIRC().quitServer();
+    }
+
+    public Collection<ChannelShard> getChannels() {
+        return Collections.unmodifiableCollection(channels.values());
+    }
+
+    public ChannelShard getChannel(String channel) {
+        return channels.get(channel.toLowerCase());
+    }
+
     public TwitchBotController(){
-        Configuration config = new Configuration.Builder()
+        this(Collections.singletonList(Secrets.CHANNEL_NAME), "irc.twitch.tv", 6667, Secrets.USER_NAME,
+                Secrets.OAUTH_TOKEN, H2UserDataStore::forChannel);
+        setChattersUrl(ChattersLoader.TWITCH_URL);
+    }
+
+    public TwitchBotController(List<String> channelNames, String server, int port, String username, String oauth,
+                               ChannelShard.StoreFactory storeFactory){
+        this.username = username;
+        logger = LoggerFactory.getLogger(getClass());
+
+        Configuration.Builder builder = new Configuration.Builder()
                 .setAutoNickChange(false) //Twitch doesn't support multiple users
                 .setOnJoinWhoEnabled(false) //Twitch doesn't support WHO command
+                .setMessageDelay(0) //OutboundScheduler already paces everything to Twitch's limits
                 .setCapEnabled(true)
                 .addCapHandler(new EnableCapHandler("twitch.tv/membership")) //Twitch by default doesn't send JOIN, PART, and NAMES unless you request it, see https://github.com/justintv/Twitch-API/blob/master/IRC.md#membership
                 .addCapHandler(new EnableCapHandler("twitch.tv/tags"))
                 .addCapHandler(new EnableCapHandler("twitch.tv/commands"))
-                .addServer("irc.twitch.tv")
+                .addServer(server, port)
                 .setName(username) //Your twitch.tv username
                 .setServerPassword(oauth) //Your generated oauth token
-                .addAutoJoinChannel(channel) //Some twitch channel
-                .addListener(this)
-                .buildConfiguration();
+                .setBotFactory(new Configuration.BotFactory() {
+                    @Override
+                    public InputParser createInputParser(PircBotX bot) {
+                        return new ChatInputParser(bot, TwitchBotController.this::onChat); // Chat skips PircBotX's parsing
+                    }
+                })
+                .addListener(this);
+
+        outbound = new OutboundScheduler((c, m) -> bot.send().message(c, m));
+        outbound.setMetrics(metrics);
+        timers = new TimerWheel();
+        for (String name : channelNames){
+            String channel = (name.startsWith("#") ? name : "#" + name).toLowerCase();
+            builder.addAutoJoinChannel(channel); //Some twitch channel
+            channels.put(channel, new ChannelShard(channel, outbound, timers, storeFactory, metrics));
+        }
 
-        bot = new PircBotX(config);
+        bot = new PircBotX(builder.buildConfiguration());
+
+        pipeline = new EventPipeline(Runtime.getRuntime().availableProcessors());
+        chattersLoader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "chatters-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        channelCloser = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "channel-closer");
+            t.setDaemon(true);
+            return t;
+        });
+        outbound.start();
+        timers.start();
 
-        logger = LoggerFactory.getLogger(getClass());
+        try {
+            metrics.register();
+        } catch (JMException ex) {
+            logger.warn("Could not register the metrics with JMX", ex);
+        }
+        sampling = true;
+        sampleMetrics();
+    }
+
+    private ChannelShard shardFor(Channel channel) {
+        return channel == null ? null : channels.get(channel.getName().toLowerCase());
+    }
 
-        spamFilter = new SpamFilter();
-        userDataManager = new UserDataManager();
-        commandManager = new CommandManager();
-        spamFilter.registerCallback((u, t) -> bot.send().message(channel, "/timeout " + u + " " + t));
+    private void leaveChannel(String channel) {
+        ChannelShard shard = channels.remove(channel);
+        if (shard == null) return;
 
+        bot.sendRaw().rawLine("PART " + channel);
+        // Called from a worker, and closing can take a while (the store's last flush). Events for the channel that
+        // are already queued on the other workers get to finish first, so their changes are saved too.
+        channelCloser.execute(() -> {
+            try {
+                if (!pipeline.awaitQueued(10, TimeUnit.SECONDS))
+                    logger.warn("Closing " + channel + " without waiting for all of its queued events");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            shard.close();
+        });
+        if (channels.isEmpty()) {
+            bot.stopBotReconnect();
+            bot.sendIRC().quitServer();
+        }
+    }
+
+    private void shutdown() {
+        sampling = false;
+        synchronized (this) {
+            if (metricsEndpoint != null) metricsEndpoint.stop();
+        }
+        metrics.unregister();
+        chattersLoader.shutdownNow();
+        timers.shutdown();
+        outbound.shutdown();
+        try {
+            pipeline.shutdown(5, TimeUnit.SECONDS);
+            channelCloser.shutdown();
+            channelCloser.awaitTermination(15, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ChannelShard shard : channels.values()){
+            shard.close();
+        }
     }
 
-    public static void main(String[] args){
-        TwitchBotController tbc = new TwitchBotController();
+    /*
+        Channels to join can be given as arguments, otherwise the one in Secrets is used. User data goes in an H2
+        database unless -Dtwitchbot.store=file is set, in which case it goes in snapshot and journal files. The
+        chatters list comes from Twitch unless -Dtwitchbot.chatters gives another URL template. Metrics are always
+        on JMX, and also served over HTTP on localhost if -Dtwitchbot.metrics.port is set.
+     */
+    public static void main(String[] args) throws IOException {
+        ChannelShard.StoreFactory stores = "file".equals(System.getProperty("twitchbot.store"))
+                ? FileUserDataStore::forChannel : H2UserDataStore::forChannel;
+        List<String> channelNames = args.length == 0 ? Collections.singletonList(Secrets.CHANNEL_NAME) : Arrays.asList(args);
+
+        TwitchBotController tbc = new TwitchBotController(channelNames, "irc.twitch.tv", 6667, Secrets.USER_NAME,
+                Secrets.OAUTH_TOKEN, stores);
+        tbc.setChattersUrl(System.getProperty("twitchbot.chatters", ChattersLoader.TWITCH_URL));
+        String metricsPort = System.getProperty("twitchbot.metrics.port");
+        if (metricsPort != null) tbc.startMetricsEndpoint(Integer.parseInt(metricsPort));
         tbc.connect();
     }
 }
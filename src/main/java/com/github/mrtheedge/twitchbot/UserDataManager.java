@@ -1,11 +1,11 @@
 package com.github.mrtheedge.twitchbot;
 
+import com.github.mrtheedge.twitchbot.exceptions.DataStoreException;
 import com.github.mrtheedge.twitchbot.exceptions.NoSuchUserException;
 
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.LongSupplier;
 
 /**
  * Created by E.J. Schroeder on 11/23/2016.
@@ -16,158 +16,304 @@ import java.util.stream.Collectors;
  */
 public class UserDataManager {
 
-    private Map<String, UserChatInformation> users;
-    private List<String> usersInChat;
-    private final Object lock = new Object();
+    private final UserTable users = new UserTable();
+    private final ChatActivity activity = new ChatActivity(users);
 
-    // https://blog.simplypatrick.com/til/2016/2016-03-02-post-processing-GSON-deserialization/
-    // Information so that on de-serialization, we can call a method that re-loads the sortedUsers list without having
-    // to store it on disk
+    private final Leaderboard currencyStandings = new Leaderboard();
+    private final Leaderboard viewTimeStandings = new Leaderboard(); // See refreshViewTimeStandings()
+    private volatile long viewTimeRefreshedAt;
+
+    private final UserDataStore store; // May be null, in which case nothing is saved
+    private final LongSupplier clock;  // Epoch seconds
 
     public UserDataManager(){
-        users = new ConcurrentHashMap<>();
-        usersInChat = new ArrayList<>();
+        this(UserDataManager::epochSecond);
+    }
+
+    UserDataManager(LongSupplier clock){
+        this.store = null;
+        this.clock = clock;
+    }
+
+    /*
+        Loads every saved user up front, then flags each change in the table so the store can save it.
+     */
+    public UserDataManager(UserDataStore store) throws DataStoreException {
+        store.attach(users);
+        this.store = store;
+        this.clock = UserDataManager::epochSecond;
+
+        // Build both boards in one pass each rather than one insert per user
+        int size = users.size();
+        long now = clock.getAsLong();
+        int[] ids = new int[size];
+        long[] currency = new long[size];
+        long[] viewTime = new long[size];
+        for (int id = 0; id < size; id++) {
+            ids[id] = id;
+            currency[id] = users.currency(id);
+            viewTime[id] = users.viewDuration(id, now);
+        }
+        currencyStandings.updateAll(ids, currency, size);
+        viewTimeStandings.updateAll(ids, viewTime, size);
     }
 
     public void join(String user){
-        UserChatInformation ut = users.get(user);
-        if (ut == null) {
-            ut = new UserChatInformation();
-            users.put(user, ut);
+        long now = clock.getAsLong();
+        int id = users.idOf(user);
+        if (id == UserTable.NO_USER) {
+            id = users.intern(user, now);
+            currencyStandings.update(id, users.currency(id));
+            viewTimeStandings.update(id, users.viewDuration(id, now));
         }
 
         // Try to avoid duplicates, because newMessage() can also call join()
-        if (!ut.isInChat()) {
-            ut.joinChat();
-            synchronized (lock) {
-                usersInChat.add(user);
+        if (users.startSession(id, now)) {
+            activity.join(id);
+            markDirty(id);
+        }
+    }
+
+    /*
+        Joins everyone in the list who isn't already in chat, and returns how many that was. New users go onto the
+        leaderboards in one batch. Like join(), this has to run on the thread that handles events for these users; a
+        channel's whole chatter list is split up with EventPipeline.partition() so each worker joins its own users.
+     */
+    public int joinAll(List<String> names){
+        long now = clock.getAsLong();
+        int[] created = new int[names.size()];
+        int createdCount = 0;
+        int joined = 0;
+        for (String user : names) {
+            int id = users.idOf(user);
+            if (id == UserTable.NO_USER) {
+                id = users.intern(user, now);
+                created[createdCount++] = id;
+            }
+            if (users.startSession(id, now)) {
+                activity.join(id);
+                markDirty(id);
+                joined++;
             }
         }
+
+        long[] currency = new long[createdCount];
+        long[] viewTime = new long[createdCount];
+        for (int i = 0; i < createdCount; i++) {
+            currency[i] = users.currency(created[i]);
+            viewTime[i] = users.viewDuration(created[i], now);
+        }
+        currencyStandings.updateAll(created, currency, createdCount);
+        viewTimeStandings.updateAll(created, viewTime, createdCount);
+        return joined;
     }
 
     public void part(String user){
-        UserChatInformation ut = users.get(user);
-        if (ut != null){
-            ut.leaveChat();
-        }
-        synchronized (lock) {
-            usersInChat.remove(user);
+        int id = users.idOf(user);
+        if (id != UserTable.NO_USER){
+            activity.part(id);
+            long now = clock.getAsLong();
+            if (users.endSession(id, now)) {
+                viewTimeStandings.update(id, users.viewDuration(id, now));
+                markDirty(id);
+            }
         }
     }
 
     public void newMessage(String user){
-        UserChatInformation chatInfo = users.get(user);
-        if (chatInfo == null || !chatInfo.isInChat()){
+        int id = users.idOf(user);
+        if (id == UserTable.NO_USER || !users.isInChat(id)){
             join(user);
-            chatInfo = users.get(user);
+            id = users.idOf(user);
         }
 
-        chatInfo.updateLastMessageTime();
+        long now = clock.getAsLong();
+        activity.message(id, users.lastMessageAt(id), now);
+        users.setLastMessageAt(id, now);
+        viewTimeStandings.update(id, users.viewDuration(id, now)); // Only touches the index when a second has passed
+        markDirty(id);
+    }
+
+    public int addCurrency(String user, int amount) throws NoSuchUserException {
+        return depositCurrency(idOf(user), amount);
+    }
+
+    public int removeCurrency(String user, int amount) throws NoSuchUserException {
+        return addCurrency(user, -amount);
     }
 
     /*
-        TODO: These standings methods are not ideal. Find some way to make them more efficient.
+        Gives everyone in chat the amount, plus the bonus for anyone who sent a message in the last activeMinutes. The
+        whole payout is applied as one batch: nothing else changes currency while it runs, and the store saves all of it
+        or none of it. Returns how many users were paid.
      */
-    public List<String> topCurrencyStandings(int n){
-        List<String> userList = getUsersAsList();
-        Collections.sort(userList, new PointsComparator());
+    public int payout(int amount, int activeBonus, int activeMinutes){
+        long activeSeconds = activeMinutes * 60L;
+        long now = clock.getAsLong();
+        int[] paid = new int[1];
+
+        users.inBatch(() -> {
+            synchronized (currencyStandings) {
+                // Room for a few joins during the sweep, anyone past that is paid and indexed one at a time
+                int capacity = activity.inChatCount() + 64;
+                int[] ids = new int[capacity];
+                long[] totals = new long[capacity];
+
+                activity.forEachInChat(id -> {
+                    int award = now - users.lastMessageAt(id) < activeSeconds ? amount + activeBonus : amount;
+                    int total = users.addCurrency(id, award);
+                    markDirty(id);
+                    if (paid[0] < capacity) {
+                        ids[paid[0]] = id;
+                        totals[paid[0]] = total;
+                    } else {
+                        currencyStandings.update(id, total);
+                    }
+                    paid[0]++;
+                });
+                currencyStandings.updateAll(ids, totals, Math.min(paid[0], capacity));
+            }
+        });
+        return paid[0];
+    }
 
-        return userList.stream().limit(n).collect(Collectors.toList());
+    public List<String> topCurrencyStandings(int n){
+        return namesOf(currencyStandings.top(n));
     }
 
     public List<String> topViewTimeStandings(int n){
-        List<String> userList = getUsersAsList();
-        Collections.sort(userList, new TimeComparator());
-
-        return userList.stream().limit(n).collect(Collectors.toList());
+        refreshViewTimeStandings(clock.getAsLong());
+        return namesOf(viewTimeStandings.top(n));
     }
 
     public int userCurrencyStanding(String user) throws NoSuchUserException {
-        UserChatInformation chatInfo = users.get(user);
-        if (chatInfo == null) throw new NoSuchUserException();
-
-        List<String> userList = getUsersAsList();
-
-        Collections.sort(userList, new PointsComparator());
-        int pos = Collections.binarySearch(userList, user);
-
-        return pos + 1; // Offset because 0 based index
+        return currencyStandings.rank(idOf(user));
     }
 
     public int userViewTimeStanding(String user) throws NoSuchUserException {
-        UserChatInformation chatInfo = users.get(user);
-        if (chatInfo == null) throw new NoSuchUserException();
-
-        List<String> userList = getUsersAsList();
-
-        Collections.sort(userList, new TimeComparator());
-        int pos = Collections.binarySearch(userList, user);
-
-        return pos + 1; // Offset because 0 based index
+        int id = idOf(user);
+        refreshViewTimeStandings(clock.getAsLong());
+        return viewTimeStandings.rank(id);
     }
 
     public int userCurrency(String user) throws NoSuchUserException {
-        UserChatInformation chatInfo = users.get(user);
-        if (chatInfo == null) throw new NoSuchUserException();
-
-        return chatInfo.getAmountOfCurrency();
+        return users.currency(idOf(user));
     }
 
     public long userTotalViewTime(String user) throws NoSuchUserException {
-        UserChatInformation chatInfo = users.get(user);
-        if (chatInfo == null) throw new NoSuchUserException();
-
-        return chatInfo.getViewDuration();
+        int id = idOf(user);
+        long viewDuration = users.viewDuration(id, clock.getAsLong());
+        viewTimeStandings.update(id, viewDuration);
+        return viewDuration;
     }
 
     public long userCreatedAt(String user) throws NoSuchUserException {
-        UserChatInformation chatInfo = users.get(user);
-        if (chatInfo == null) throw new NoSuchUserException();
+        return users.createdAt(idOf(user));
+    }
+
+    /*
+        A copy of everything known about the user right now.
+     */
+    public UserChatInformation userInformation(String user) throws NoSuchUserException {
+        int id = idOf(user);
+        long now = clock.getAsLong();
+        return new UserChatInformation(users.createdAt(id), users.lastMessageAt(id), users.viewDuration(id, now),
+                users.currency(id), users.isInChat(id));
+    }
 
-        return chatInfo.getCreatedAt();
+    /*
+        How many users have ever been seen, in chat or not.
+     */
+    public int userCount(){
+        return users.size();
     }
 
+    /*
+        Users in chat who have sent a message in the last given number of minutes.
+     */
     public List<String> activeUsers(int minutes){
-        long currentTime = Instant.now().getEpochSecond();
-        long seconds = minutes * 60;
         List<String> activeUsers = new ArrayList<>();
-        synchronized (lock){
-            return usersInChat.stream()
-                    .filter(s -> currentTime - users.get(s).getLastMessageTime() < minutes)
-                    .collect(Collectors.toList());
-        }
+        activity.forEachActive(minutes * 60L, clock.getAsLong(), id -> activeUsers.add(users.nameOf(id)));
+        return activeUsers;
     }
 
-    private List<String> getUsersAsList() {
-        List<String> list = new ArrayList<>(users.size());
+    public int usersInChatCount(){
+        return activity.inChatCount();
+    }
 
-        for(String s : users.keySet()){
-            list.add(s);
+    int depositCurrency(int id, int amount){
+        synchronized (currencyStandings) { // Keeps the index in the same order as the changes to the user
+            int total = users.addCurrency(id, amount);
+            currencyStandings.update(id, total);
+            markDirty(id);
+            return total;
         }
+    }
 
-        return list;
+    /*
+        Takes the amount from the user if they have that much. Returns false, taking nothing, if they don't.
+     */
+    boolean withdrawCurrency(int id, int amount){
+        synchronized (currencyStandings) {
+            int total = users.withdrawCurrency(id, amount);
+            if (total < 0) return false;
+            currencyStandings.update(id, total);
+            markDirty(id);
+            return true;
+        }
     }
 
-    class TimeComparator implements Comparator<String> {
-        @Override
-        public int compare(String o1, String o2) {
-            UserChatInformation u1 = users.get(o1);
-            UserChatInformation u2 = users.get(o2);
+    String nameOf(int id){
+        return users.nameOf(id);
+    }
 
-            // Flip the order because the sort needs to be from biggest to smallest
-            return (int) (u2.getViewDuration() - u1.getViewDuration());
-        }
+    int currencyOf(int id){
+        return users.currency(id);
     }
 
-    class PointsComparator implements Comparator<String> {
-        @Override
-        public int compare(String o1, String o2) {
-            UserChatInformation u1 = users.get(o1);
-            UserChatInformation u2 = users.get(o2);
+    int idOf(String user) throws NoSuchUserException {
+        int id = users.idOf(user);
+        if (id == UserTable.NO_USER) throw new NoSuchUserException();
+        return id;
+    }
 
-            // Flip because we want most currency first.
-            return u2.getAmountOfCurrency() - u1.getAmountOfCurrency();
-        }
+    /*
+        Brings the view time of everyone in chat up to date on the board. Keys otherwise only move on a join, message
+        or part, so someone lurking for hours would still be ranked by what they had the last time they did anything.
+        Their keys only change once a second, so the sweep runs at most once a second.
+     */
+    private void refreshViewTimeStandings(long now){
+        if (viewTimeRefreshedAt == now) return;
+        viewTimeRefreshedAt = now;
+
+        // Room for a few joins during the sweep, anyone past that is indexed one at a time
+        int capacity = activity.inChatCount() + 64;
+        int[] ids = new int[capacity];
+        long[] viewTime = new long[capacity];
+        int[] count = new int[1];
+        activity.forEachInChat(id -> {
+            if (count[0] < capacity) {
+                ids[count[0]] = id;
+                viewTime[count[0]++] = users.viewDuration(id, now);
+            } else {
+                viewTimeStandings.update(id, users.viewDuration(id, now));
+            }
+        });
+        viewTimeStandings.updateAll(ids, viewTime, count[0]);
+    }
+
+    private List<String> namesOf(int[] ids){
+        List<String> names = new ArrayList<>(ids.length);
+        for (int id : ids) names.add(users.nameOf(id));
+        return names;
+    }
+
+    private static long epochSecond(){
+        return Instant.now().getEpochSecond();
+    }
+
+    private void markDirty(int id){
+        if (store != null) users.markDirty(id);
     }
 
 }
@@ -0,0 +1,25 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.DataStoreException;
+
+/**
+ * Somewhere to keep user data between runs. UserDataManager hands the store its user table once at startup, and the
+ * store fills it with everything that was saved. From then on the manager only flags which users changed in the
+ * table itself; implementations decide when and how those changes actually get written, but must never make the
+ * chat threads wait on disk.
+ */
+public interface UserDataStore {
+
+    // How often the view time of everyone still in chat is saved, so a crash loses at most this much of it
+    long SESSION_CHECKPOINT_SECONDS = 60;
+
+    /*
+        Loads every saved user into the table, and keeps the table to save changed users from later on.
+     */
+    void attach(UserTable table) throws DataStoreException;
+
+    void flush() throws DataStoreException;
+
+    void close() throws DataStoreException;
+
+}
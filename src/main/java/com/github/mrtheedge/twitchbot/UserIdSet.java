@@ -0,0 +1,58 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of UserTable ids, one bit per user. Bits live in fixed size pages that are only created once an id in their
+ * range is added, so a set covering a few thousand of a channel's million users stays a few kilobytes. Adding is a
+ * single compare and set on the word holding the bit and never blocks; only the first id in a new page takes a lock,
+ * to add the page.
+ */
+final class UserIdSet {
+
+    private static final int PAGE_SHIFT = 15; // 32768 ids, 4KB per page
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_SHIFT - 6);
+
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+    /*
+        Adds the id, returns false if it was already in the set. Two threads adding the same id at once get one true
+        and one false between them.
+     */
+    boolean add(int id) {
+        AtomicLongArray page = pageFor(id);
+        int word = (id >>> 6) & (WORDS_PER_PAGE - 1);
+        long bit = 1L << id; // Shifts only use the low 6 bits
+
+        while (true) {
+            long current = page.get(word);
+            if ((current & bit) != 0) return false;
+            if (page.compareAndSet(word, current, current | bit)) return true;
+        }
+    }
+
+    boolean contains(int id) {
+        AtomicLongArray[] pages = this.pages;
+        int p = id >>> PAGE_SHIFT;
+        if (p >= pages.length || pages[p] == null) return false;
+        return (pages[p].get((id >>> 6) & (WORDS_PER_PAGE - 1)) & (1L << id)) != 0;
+    }
+
+    private AtomicLongArray pageFor(int id) {
+        AtomicLongArray[] pages = this.pages;
+        int p = id >>> PAGE_SHIFT;
+        if (p < pages.length && pages[p] != null) return pages[p];
+
+        synchronized (this) {
+            pages = this.pages;
+            if (p < pages.length && pages[p] != null) return pages[p];
+
+            // Copied rather than filled in, so readers never see a page in an array they already hold
+            AtomicLongArray[] grown = Arrays.copyOf(pages, Math.max(pages.length, p + 1));
+            grown[p] = new AtomicLongArray(WORDS_PER_PAGE);
+            this.pages = grown;
+            return grown[p];
+        }
+    }
+}
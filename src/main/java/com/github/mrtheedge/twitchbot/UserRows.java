@@ -0,0 +1,48 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Copies of some users' columns from a UserTable, kept column by column like the table itself. The stores fill one of
+ * these while they hold the table's batch lock and write it out afterwards, so saving a million users doesn't create
+ * an object per user or keep the table locked while the disk catches up.
+ *
+ * View time includes the session of anyone still in chat, up to when the rows were started.
+ */
+final class UserRows {
+
+    int[] ids = new int[256];
+    String[] names = new String[256];
+    long[] createdAt = new long[256];
+    long[] lastMessageAt = new long[256];
+    long[] viewDuration = new long[256];
+    int[] currency = new int[256];
+    private int size;
+    private final long savedAt = Instant.now().getEpochSecond();
+
+    void add(int id, UserTable table) {
+        if (size == ids.length) grow();
+        ids[size] = id;
+        names[size] = table.nameOf(id);
+        createdAt[size] = table.createdAt(id);
+        lastMessageAt[size] = table.lastMessageAt(id);
+        viewDuration[size] = table.viewDuration(id, savedAt);
+        currency[size] = table.currency(id);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        int capacity = size * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        lastMessageAt = Arrays.copyOf(lastMessageAt, capacity);
+        viewDuration = Arrays.copyOf(viewDuration, capacity);
+        currency = Arrays.copyOf(currency, capacity);
+    }
+}
@@ -0,0 +1,303 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+/**
+ * Column oriented storage for every user the bot has seen. Each nick is interned to a dense int id the first time it
+ * shows up, and the user's data lives at that index in a handful of primitive arrays instead of in an object per
+ * user. Arrays are allocated in fixed size pages that never move, so ids stay valid and readers never need a lock.
+ *
+ * Looking up a nick is lock free. Adding a new nick takes a lock, but only for the interning itself. Each user's
+ * fields are expected to be written by one thread at a time (events for a user are handled in order on one worker);
+ * currency and the dirty flags are atomic since they are also changed from other places.
+ *
+ * View time and the current session are one atomic value per user, so the total so far can be read (and saved) from
+ * any thread without ever seeing a session half started or half ended. While the user isn't in chat it's their total
+ * in seconds; while they are, it's their total minus the epoch second the session started, which is always negative.
+ */
+public final class UserTable {
+
+    static final int NO_USER = -1;
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private volatile Page[] pages = new Page[0];
+    private volatile int size;
+    private volatile Index index = new Index(64);
+    private final Object batchLock = new Object();
+
+    /*
+        The id for the nick, or NO_USER if it hasn't been seen before. Never blocks.
+     */
+    int idOf(String nick) {
+        return index.get(nick);
+    }
+
+    /*
+        The id for the nick, adding a new user created at the given time if needed.
+     */
+    int intern(String nick, long createdAt) {
+        int id = index.get(nick);
+        if (id != NO_USER) return id;
+
+        synchronized (this) {
+            id = index.get(nick);
+            if (id != NO_USER) return id;
+
+            id = size;
+            Page page = pageForNewId(id);
+            int slot = id & PAGE_MASK;
+            page.names[slot] = nick;
+            page.createdAt[slot] = createdAt;
+
+            addToIndex(nick, id);
+            size = id + 1; // Publishes the new row
+            return id;
+        }
+    }
+
+    /*
+        Puts back a user that was saved to disk. Existing users are overwritten.
+     */
+    int restore(String nick, long createdAt, long lastMessageAt, long viewDuration, int currency) {
+        int id = intern(nick, createdAt);
+        Page page = page(id);
+        int slot = id & PAGE_MASK;
+        page.createdAt[slot] = createdAt;
+        page.lastMessageAt[slot] = lastMessageAt;
+        page.view.set(slot, viewDuration);
+        page.currency.set(slot, currency);
+        return id;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String nameOf(int id) {
+        return page(id).names[id & PAGE_MASK];
+    }
+
+    long createdAt(int id) {
+        return page(id).createdAt[id & PAGE_MASK];
+    }
+
+    long lastMessageAt(int id) {
+        return page(id).lastMessageAt[id & PAGE_MASK];
+    }
+
+    void setLastMessageAt(int id, long time) {
+        page(id).lastMessageAt[id & PAGE_MASK] = time;
+    }
+
+    /*
+        Total time in chat, counting the current session up to now (in epoch seconds).
+     */
+    long viewDuration(int id, long now) {
+        long view = page(id).view.get(id & PAGE_MASK);
+        return view >= 0 ? view : now + view;
+    }
+
+    long viewDuration(int id) {
+        return viewDuration(id, Instant.now().getEpochSecond());
+    }
+
+    /*
+        Starts a viewing session at the given time. Returns false if the user was already in chat.
+     */
+    boolean startSession(int id, long now) {
+        AtomicLongArray view = page(id).view;
+        int slot = id & PAGE_MASK;
+        while (true) {
+            long current = view.get(slot);
+            if (current < 0) return false;
+            if (view.compareAndSet(slot, current, current - now)) return true;
+        }
+    }
+
+    /*
+        Ends the session, adding it to the user's total. Returns false if they weren't in chat.
+     */
+    boolean endSession(int id, long now) {
+        AtomicLongArray view = page(id).view;
+        int slot = id & PAGE_MASK;
+        while (true) {
+            long current = view.get(slot);
+            if (current >= 0) return false;
+            if (view.compareAndSet(slot, current, Math.max(0, now + current))) return true;
+        }
+    }
+
+    boolean isInChat(int id) {
+        return page(id).view.get(id & PAGE_MASK) < 0;
+    }
+
+    int currency(int id) {
+        return page(id).currency.get(id & PAGE_MASK);
+    }
+
+    /*
+        Atomically adds to the user's currency, never going below 0. Returns the new amount.
+     */
+    int addCurrency(int id, int amount) {
+        AtomicIntegerArray currency = page(id).currency;
+        int slot = id & PAGE_MASK;
+        while (true) {
+            int current = currency.get(slot);
+            long next = Math.max(0L, (long) current + amount);
+            int clamped = (int) Math.min(Integer.MAX_VALUE, next);
+            if (currency.compareAndSet(slot, current, clamped)) return clamped;
+        }
+    }
+
+    /*
+        Atomically takes the amount from the user, but only if they have at least that much. Returns the new amount,
+        or -1 if they don't have enough and nothing was taken.
+     */
+    int withdrawCurrency(int id, int amount) {
+        AtomicIntegerArray currency = page(id).currency;
+        int slot = id & PAGE_MASK;
+        while (true) {
+            int current = currency.get(slot);
+            if (current < amount) return -1;
+            if (currency.compareAndSet(slot, current, current - amount)) return current - amount;
+        }
+    }
+
+    void markDirty(int id) {
+        page(id).dirty.lazySet(id & PAGE_MASK, 1);
+    }
+
+    /*
+        Flags everyone in chat, so the next drain saves their view time up to then. Sessions only end on a part, so
+        without this someone who stays until the bot stops (or crashes) would lose all of it.
+     */
+    void markInChatDirty() {
+        for (int id = 0, size = this.size; id < size; id++) {
+            if (isInChat(id)) markDirty(id);
+        }
+    }
+
+    int dirtyCount() {
+        int count = 0;
+        for (int id = 0, size = this.size; id < size; id++) {
+            if (page(id).dirty.get(id & PAGE_MASK) != 0) count++;
+        }
+        return count;
+    }
+
+    /*
+        Runs a change to many users at once. A drain never sees only part of a batch, so whatever the store saves
+        either has all of it or none of it.
+     */
+    void inBatch(Runnable batch) {
+        synchronized (batchLock) {
+            batch.run();
+        }
+    }
+
+    /*
+        Calls the consumer with every user changed since the last drain. Each flag is cleared before the consumer sees
+        the user, so a change made while it runs is picked up by the next drain. The consumer should copy out what it
+        needs right away, a batch can't run until the drain is done.
+     */
+    void drainDirty(IntConsumer consumer) {
+        synchronized (batchLock) {
+            Page[] pages = this.pages;
+            int size = this.size;
+            for (int p = 0; p < pages.length; p++) {
+                AtomicIntegerArray dirty = pages[p].dirty;
+                int base = p << PAGE_SHIFT;
+                int end = Math.min(PAGE_SIZE, size - base);
+                for (int slot = 0; slot < end; slot++) {
+                    if (dirty.get(slot) != 0 && dirty.getAndSet(slot, 0) != 0) consumer.accept(base + slot);
+                }
+            }
+        }
+    }
+
+    private Page page(int id) {
+        return pages[id >>> PAGE_SHIFT];
+    }
+
+    private Page pageForNewId(int id) {
+        int p = id >>> PAGE_SHIFT;
+        Page[] current = pages;
+        if (p < current.length) return current[p];
+
+        Page[] grown = Arrays.copyOf(current, p + 1);
+        grown[p] = new Page();
+        pages = grown;
+        return grown[p];
+    }
+
+    private void addToIndex(String nick, int id) {
+        Index current = index;
+        if ((size + 1) * 2 > current.capacity()) {
+            // Build the bigger table off to the side, readers keep using the old one until it's swapped in
+            Index grown = new Index(current.capacity() * 2);
+            for (int i = 0; i < size; i++) grown.put(nameOf(i), i);
+            grown.put(nick, id);
+            index = grown;
+        } else {
+            current.put(nick, id);
+        }
+    }
+
+    private static final class Page {
+        final String[] names = new String[PAGE_SIZE];
+        final long[] createdAt = new long[PAGE_SIZE];
+        final long[] lastMessageAt = new long[PAGE_SIZE];
+        final AtomicLongArray view = new AtomicLongArray(PAGE_SIZE); // See the class comment
+        final AtomicIntegerArray currency = new AtomicIntegerArray(PAGE_SIZE);
+        final AtomicIntegerArray dirty = new AtomicIntegerArray(PAGE_SIZE);
+    }
+
+    /*
+        Open addressed nick -> id table. Only written under the UserTable lock. The id is written before the key, and
+        the key is published with a volatile write, so a reader that finds the key also sees the id.
+     */
+    private static final class Index {
+        private final AtomicReferenceArray<String> keys;
+        private final int[] ids;
+        private final int mask;
+
+        Index(int capacity) {
+            keys = new AtomicReferenceArray<>(capacity);
+            ids = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        int capacity() {
+            return ids.length;
+        }
+
+        int get(String nick) {
+            int slot = spread(nick.hashCode()) & mask;
+            String key;
+            while ((key = keys.get(slot)) != null) {
+                if (key.equals(nick)) return ids[slot];
+                slot = (slot + 1) & mask;
+            }
+            return NO_USER;
+        }
+
+        void put(String nick, int id) {
+            int slot = spread(nick.hashCode()) & mask;
+            while (keys.get(slot) != null) slot = (slot + 1) & mask;
+            ids[slot] = id;
+            keys.set(slot, nick);
+        }
+
+        private static int spread(int hash) {
+            return (hash ^ (hash >>> 16)) * 0x9E3779B1;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.mrtheedge.twitchbot.exceptions;
+
+/**
+ * Thrown when user data can't be loaded from or saved to disk.
+ */
+public class DataStoreException extends Exception {
+
+    public DataStoreException(String message){
+        super(message);
+    }
+
+    public DataStoreException(String message, Throwable cause){
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AuctionTest {
+
+    private UserDataManager udm;
+    private int alice;
+    private int bob;
+
+    @Before
+    public void setUp() throws Exception {
+        udm = new UserDataManager();
+        udm.join("alice");
+        udm.join("bob");
+        udm.addCurrency("alice", 100);
+        udm.addCurrency("bob", 100);
+        alice = udm.idOf("alice");
+        bob = udm.idOf("bob");
+    }
+
+    @Test
+    public void testOutbidIsRefunded() throws Exception {
+        Auction auction = new Auction("A signed mouse pad", 10, udm);
+        assertEquals(Auction.BidResult.TOO_LOW, auction.bid(alice, 5));
+        assertEquals(Auction.BidResult.HIGHEST, auction.bid(alice, 30));
+        assertEquals(70, udm.userCurrency("alice"));
+
+        assertEquals(Auction.BidResult.TOO_LOW, auction.bid(bob, 30));
+        assertEquals(Auction.BidResult.NOT_ENOUGH_CURRENCY, auction.bid(bob, 101));
+        assertEquals(Auction.BidResult.HIGHEST, auction.bid(bob, 40));
+        assertEquals(100, udm.userCurrency("alice"));
+        assertEquals(60, udm.userCurrency("bob"));
+
+        // Raising your own bid only needs the difference
+        assertEquals(Auction.BidResult.HIGHEST, auction.bid(bob, 100));
+        assertEquals(0, udm.userCurrency("bob"));
+
+        Auction.Bid winner = auction.close();
+        assertEquals(bob, winner.bidder);
+        assertEquals(100, winner.amount);
+        assertEquals(Auction.BidResult.CLOSED, auction.bid(alice, 100));
+        assertEquals(0, udm.userCurrency("bob"));
+        assertEquals(100, udm.userCurrency("alice"));
+    }
+
+    @Test
+    public void testCancelRefunds() throws Exception {
+        Auction auction = new Auction("A hug", 1, udm);
+        auction.bid(alice, 50);
+        auction.cancel();
+        assertFalse(auction.isOpen());
+        assertEquals(100, udm.userCurrency("alice"));
+    }
+
+    @Test
+    public void testConcurrentBidsConserveCurrency() throws Exception {
+        int users = 200;
+        int[] ids = new int[users];
+        for (int i = 0; i < users; i++) {
+            udm.join("bidder" + i);
+            udm.addCurrency("bidder" + i, 1000);
+            ids[i] = udm.idOf("bidder" + i);
+        }
+
+        Auction auction = new Auction("A game key", 1, udm);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            Random random = new Random(t);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    int amount = auction.highBid().amount + 1 + random.nextInt(3);
+                    auction.bid(ids[random.nextInt(users)], amount);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        Auction.Bid winner = auction.close();
+        long total = 0;
+        for (int i = 0; i < users; i++) total += udm.userCurrency("bidder" + i);
+        assertEquals(users * 1000L, total + winner.amount); // Nothing made up, nothing lost
+        assertTrue(winner.amount > 0);
+    }
+}
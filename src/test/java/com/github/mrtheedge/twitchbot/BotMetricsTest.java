@@ -0,0 +1,127 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+import static org.junit.Assert.*;
+
+public class BotMetricsTest {
+
+    private BotMetrics metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new BotMetrics();
+    }
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 1000, 123_456_789, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= value);
+            if (value != Long.MAX_VALUE) assertTrue(LatencyHistogram.lowerBound(bucket + 1) > value);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) histogram.record(micros * 1000);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count());
+        assertEquals(500_500, snapshot.mean(), 1);
+        assertEquals(1_000_000, snapshot.max());
+        // Within the 12.5% a bucket is wide
+        assertEquals(500_000, snapshot.percentile(0.5), 500_000 / 8);
+        assertEquals(990_000, snapshot.percentile(0.99), 990_000 / 8);
+        assertEquals(1_000_000, snapshot.percentile(1.0));
+    }
+
+    @Test
+    public void testRecordFromManyThreads() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) histogram.record(i);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertEquals(800_000, histogram.snapshot().count());
+        assertEquals(99_999, histogram.snapshot().max());
+    }
+
+    @Test
+    public void testRates() {
+        metrics.sample(0);
+        for (int i = 0; i < 300; i++) metrics.message();
+        for (int i = 0; i < 30; i++) metrics.command();
+        metrics.sample(3_000_000_000L);
+
+        assertEquals(300, metrics.getMessages());
+        assertEquals(100, metrics.getMessagesPerSecond(), 0.001);
+        assertEquals(10, metrics.getCommandsPerSecond(), 0.001);
+    }
+
+    @Test
+    public void testCommandsAreTimed() throws Exception {
+        CommandManager cm = new CommandManager();
+        cm.setMetrics(metrics);
+        cm.parseCommand("user", "!addcom !hello Hello!", null); // Not a mod, still a command
+        cm.parseCommand("user", "!nothing", null);
+
+        assertEquals(1, metrics.getCommands());
+        assertEquals(1, metrics.getLatencies().get("command_parse").getCount());
+        assertEquals(1, metrics.getLatencies().get("command_execution").getCount());
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BotMetrics.OBJECT_NAME);
+        metrics.register();
+        try {
+            metrics.strike();
+            metrics.spamCheck(SpamType.CAPS, 2000);
+            assertEquals(1L, server.getAttribute(name, "Strikes"));
+
+            TabularData latencies = (TabularData) server.getAttribute(name, "Latencies");
+            assertNotNull(latencies.get(new Object[]{"spam_caps"}));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void testEndpoint() throws Exception {
+        MetricsEndpoint endpoint = new MetricsEndpoint(metrics, 0);
+        endpoint.start();
+        try {
+            metrics.timeout();
+            metrics.outbound.record(5000);
+
+            String text;
+            try (InputStream in = new URL("http://localhost:" + endpoint.port() + "/metrics").openStream()) {
+                text = new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next();
+            }
+            assertTrue(text.contains("twitchbot_timeouts_total 1\n"));
+            assertTrue(text.contains("twitchbot_latency_count{stage=\"outbound\"} 1\n"));
+        } finally {
+            endpoint.stop();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of ChatActivity
+ */
+public class ChatActivityTest {
+
+    static final long START = 1_000_000 * 60L; // On a minute boundary
+
+    UserTable users;
+    ChatActivity activity;
+
+    @Before
+    public void setUp() throws Exception {
+        users = new UserTable();
+        activity = new ChatActivity(users);
+        for (String nick : Arrays.asList("alice", "bob", "carol")) {
+            activity.join(users.intern(nick, START));
+        }
+    }
+
+    @Test
+    public void testWindowIsInSeconds() throws Exception {
+        message("alice", START);
+        message("bob", START + 200);
+        message("carol", START + 290);
+
+        assertEquals(Arrays.asList("bob", "carol"), active(5 * 60, START + 310));
+        assertEquals(Arrays.asList("alice", "bob", "carol"), active(5 * 60, START + 299));
+        assertEquals(Collections.singletonList("carol"), active(60, START + 320));
+    }
+
+    @Test
+    public void testUsersAreOnlyReportedOnce() throws Exception {
+        for (int i = 0; i < 10; i++) message("alice", START + i * 30); // Spread over five minutes
+        assertEquals(Collections.singletonList("alice"), active(10 * 60, START + 300));
+    }
+
+    @Test
+    public void testPartedUsersAreNotActive() throws Exception {
+        message("alice", START);
+        message("bob", START);
+        activity.part(users.idOf("alice"));
+
+        assertEquals(Collections.singletonList("bob"), active(60, START + 1));
+        assertEquals(2, activity.inChatCount());
+    }
+
+    @Test
+    public void testWindowLongerThanTheRing() throws Exception {
+        message("alice", START);
+        message("bob", START + 3 * 3600);
+
+        long now = START + 3 * 3600 + 10;
+        assertEquals(Collections.singletonList("bob"), active(3600, now));
+        assertEquals(Arrays.asList("alice", "bob"), active(4 * 3600, now));
+    }
+
+    private void message(String nick, long time) {
+        int id = users.idOf(nick);
+        activity.message(id, users.lastMessageAt(id), time);
+        users.setLastMessageAt(id, time);
+    }
+
+    private List<String> active(long seconds, long now) {
+        List<String> active = new ArrayList<>();
+        activity.forEachActive(seconds, now, id -> active.add(users.nameOf(id)));
+        Collections.sort(active);
+        return active;
+    }
+}
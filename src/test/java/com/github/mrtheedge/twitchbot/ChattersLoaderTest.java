@@ -0,0 +1,79 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of ChattersLoader and bulk joins, against a stand-in for Twitch's chatters endpoint
+ */
+public class ChattersLoaderTest {
+
+    HttpServer server;
+    volatile byte[] reply;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/group/user/", exchange -> {
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        String json = "{\"_links\": {}, \"chatter_count\": 4, \"chatters\": {\"moderators\": [\"A_Mod\"], " +
+                "\"staff\": [], \"global_mods\": [], \"viewers\": [\"one\", \"two\"], \"vips\": [\"vip\"]}}";
+
+        assertEquals(Arrays.asList("a_mod", "one", "two", "vip"), ChattersLoader.parse(new StringReader(json)));
+    }
+
+    @Test
+    public void testBulkJoinFromEndpoint() throws Exception {
+        int count = 100_000;
+        StringBuilder json = new StringBuilder("{\"chatter_count\": " + count + ", \"chatters\": {\"moderators\": [\"mod\"], \"viewers\": [");
+        for (int i = 0; i < count - 1; i++) json.append(i == 0 ? "" : ",").append("\"viewer").append(i).append('"');
+        json.append("]}}");
+        reply = json.toString().getBytes(StandardCharsets.UTF_8);
+
+        ChannelShard shard = new ChannelShard("#chan", new OutboundScheduler((c, m) -> {}), new TimerWheel(), null,
+                new BotMetrics());
+        UserDataManager udm = shard.getUserDataManager();
+        udm.join("viewer1"); // Already here, shouldn't be joined twice
+        udm.addCurrency("viewer1", 50);
+
+        URL url = ChattersLoader.urlFor("http://localhost:" + server.getAddress().getPort() + "/group/user/%s/chatters", "#Chan");
+        EventPipeline pipeline = new EventPipeline(4);
+        assertEquals(count - 1, shard.loadChatters(url, pipeline));
+
+        assertEquals(count, udm.userCount());
+        assertEquals(count, udm.usersInChatCount());
+        assertEquals(50, udm.userCurrency("viewer1"));
+        assertEquals(1, udm.userCurrencyStanding("viewer1"));
+        assertEquals(2, udm.userCurrencyStanding("viewer99998")); // Everyone new is on the board, tied at 0
+
+        assertEquals(0, shard.loadChatters(url, pipeline)); // Everyone is already in chat
+        pipeline.shutdown(5, TimeUnit.SECONDS);
+        shard.close();
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.NoSuchCommandException;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of CommandManager
+ */
+public class CommandManagerTest {
+
+    static final ImmutableMap<String, String> MOD = ImmutableMap.of("mod", "1");
+    static final ImmutableMap<String, String> VIEWER = ImmutableMap.of("mod", "0");
+
+    CommandManager cm;
+    UserDataManager udm;
+
+    @Before
+    public void setUp() throws Exception {
+        cm = new CommandManager();
+        udm = new UserDataManager();
+        cm.setDataSource(udm);
+        udm.join("generic_user");
+    }
+
+    @Test
+    public void testAddAndCallCommand() throws Exception {
+        assertEquals("Command !hello added.", cm.parseCommand("a_mod", "addcom !hello Hello <user>!", MOD));
+        assertEquals("Hello generic_user!", cm.parseCommand("generic_user", "hello", VIEWER));
+
+        assertEquals("Command !hello already exists.", cm.parseCommand("a_mod", "addcom hello Hi", MOD));
+        assertEquals("", cm.parseCommand("generic_user", "addcom bye Bye", VIEWER)); // Only mods can add commands
+    }
+
+    @Test
+    public void testTemplateVariables() throws Exception {
+        udm.addCurrency("generic_user", 42);
+        cm.parseCommand("a_mod", "addcom hug <user> hugs <touser>! <user> has <points> points, rank <rank>", MOD);
+        cm.parseCommand("a_mod", "addcom second <arg(2, nobody)> <unknown> <arg(x)>", MOD);
+        cm.parseCommand("a_mod", "addcom secondagain <arg(2, nobody)> <unknown> <arg(x)>", MOD);
+
+        assertEquals("generic_user hugs friend! generic_user has 42 points, rank 1",
+                cm.parseCommand("generic_user", "hug friend", VIEWER));
+        assertEquals("nobody <unknown> ", cm.parseCommand("generic_user", "second one", VIEWER));
+        // A second call of the same command within the same second would be on cooldown
+        assertEquals("two <unknown> ", cm.parseCommand("generic_user", "secondagain one two", VIEWER));
+    }
+
+    @Test
+    public void testCallerCannotStartAChatCommand() throws Exception {
+        cm.parseCommand("a_mod", "addcom hug <touser> gets a hug", MOD);
+        cm.parseCommand("a_mod", "addcom say  <arg(1)> <arg(2)>", MOD);
+        cm.parseCommand("a_mod", "addcom me /me hugs <touser>", MOD);
+
+        String reply = cm.parseCommand("generic_user", "!hug /ban x", VIEWER);
+        assertFalse(reply.startsWith("/"));
+        assertEquals("ban gets a hug", reply);
+        assertEquals("timeout x", cm.parseCommand("generic_user", "!say .timeout x", VIEWER).trim());
+        assertEquals("/me hugs /ban", cm.parseCommand("generic_user", "!me /ban", VIEWER)); // Only the start matters
+    }
+
+    @Test
+    public void testEditAndDeleteCommand() throws Exception {
+        cm.parseCommand("a_mod", "addcom hello Hello <user>", MOD);
+
+        assertEquals("Command !hello updated.", cm.parseCommand("a_mod", "editcom hello mod Bye <user>", MOD));
+        assertEquals("", cm.parseCommand("generic_user", "hello", VIEWER)); // Now mod only
+        assertEquals("Bye a_mod", cm.parseCommand("a_mod", "hello", MOD));
+
+        assertEquals("Command !hello removed.", cm.parseCommand("a_mod", "delcom !hello", MOD));
+        assertEquals("", cm.parseCommand("a_mod", "hello", MOD));
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        cm.parseCommand("a_mod", "addcom hug <user> hugs <arg(1)>", MOD);
+
+        assertEquals("generic_user hugs friend", cm.parseCommand("generic_user", "!hug   friend  ", VIEWER));
+        assertEquals("", cm.parseCommand("generic_user", "!notacommand at all", VIEWER));
+        assertEquals("", cm.parseCommand("generic_user", "!hu", VIEWER));
+        assertEquals("Command !addcom already exists.", cm.parseCommand("a_mod", "addcom addcom Hi", MOD));
+    }
+
+    @Test(expected = NoSuchCommandException.class)
+    public void testEmptyCommand() throws Exception {
+        cm.parseCommand("generic_user", "!   ", VIEWER);
+    }
+
+    @Test
+    public void testTimersCommand() throws Exception {
+        cm.setTimers(new ChatTimers("#chan", new TimerWheel(), new OutboundScheduler((c, m) -> {})));
+
+        assertEquals("There are no timers.", cm.parseCommand("a_mod", "timers list", MOD));
+        assertEquals("Timer follow added, every 10 minutes after at least 5 lines of chat.",
+                cm.parseCommand("a_mod", "timers add follow 10 Remember to follow", MOD));
+        assertEquals("Timer discord added, every 15 minutes after at least 2 lines of chat.",
+                cm.parseCommand("a_mod", "timers add discord 15 2 Join the discord", MOD));
+        assertEquals("Timer follow already exists.", cm.parseCommand("a_mod", "timers add follow 5 Again", MOD));
+        assertEquals("Timers need a number of minutes of at least 1.",
+                cm.parseCommand("a_mod", "timers add spam 0 Too often", MOD));
+        assertEquals("", cm.parseCommand("generic_user", "timers list", VIEWER)); // Mods only
+
+        assertEquals("Timers: discord, follow", cm.parseCommand("a_mod", "timers list", MOD));
+        assertEquals("Timer follow removed.", cm.parseCommand("a_mod", "timers del follow", MOD));
+        assertEquals("There is no timer follow.", cm.parseCommand("a_mod", "timers del follow", MOD));
+    }
+
+    @Test
+    public void testPollAndVote() throws Exception {
+        udm.join("viewer1");
+        udm.join("viewer2");
+
+        assertEquals("", cm.parseCommand("generic_user", "vote 1", VIEWER)); // No poll yet
+        assertEquals("", cm.parseCommand("generic_user", "poll title Nope", VIEWER)); // Mods only
+        assertEquals("Start a poll with !poll title {content} first.", cm.parseCommand("a_mod", "poll option Yes", MOD));
+        assertEquals("New poll: Pizza tonight?. Add options with !poll option {content}.",
+                cm.parseCommand("a_mod", "poll title Pizza tonight?", MOD));
+        assertEquals("Option 1 added: Yes.", cm.parseCommand("a_mod", "poll option Yes", MOD));
+        assertEquals("A poll needs a title and at least two options.", cm.parseCommand("a_mod", "poll open", MOD));
+        cm.parseCommand("a_mod", "poll option No way", MOD);
+        assertEquals("Poll open! Pizza tonight?: 1) Yes, 2) No way. Vote with !vote {number}",
+                cm.parseCommand("a_mod", "poll open", MOD));
+
+        assertEquals("", cm.parseCommand("generic_user", "vote 1", VIEWER));
+        assertEquals("", cm.parseCommand("generic_user", "vote 2", VIEWER)); // Already voted
+        assertEquals("", cm.parseCommand("viewer1", "vote 2", VIEWER));
+        assertEquals("", cm.parseCommand("viewer2", "vote 3", VIEWER)); // No such option
+        assertEquals("", cm.parseCommand("stranger", "vote 1", VIEWER)); // Never seen in chat
+        assertEquals("Pizza tonight?: 1) Yes, 2) No way. Vote with !vote {number}",
+                cm.parseCommand("viewer2", "vote", VIEWER));
+        assertEquals("Pizza tonight?: 1) Yes - 1 (50%), 2) No way - 1 (50%)", cm.parseCommand("a_mod", "poll results", MOD));
+
+        assertEquals("Poll closed! Pizza tonight?: 1) Yes - 1 (50%), 2) No way - 1 (50%)",
+                cm.parseCommand("a_mod", "poll close", MOD));
+        assertEquals("", cm.parseCommand("viewer2", "vote 1", VIEWER));
+        assertEquals("There is no open poll.", cm.parseCommand("a_mod", "poll close", MOD));
+    }
+
+    @Test
+    public void testRaffle() throws Exception {
+        udm.join("viewer1");
+        udm.join("viewer2");
+
+        assertEquals("", cm.parseCommand("generic_user", "raffle", VIEWER)); // No raffle yet
+        assertEquals("Raffle open! Type !raffle to enter.", cm.parseCommand("a_mod", "raffle open", MOD));
+        assertEquals("There is already a raffle open.", cm.parseCommand("a_mod", "raffle open", MOD));
+        assertEquals("", cm.parseCommand("generic_user", "raffle", VIEWER));
+        assertEquals("", cm.parseCommand("generic_user", "raffle", VIEWER));
+        assertEquals("", cm.parseCommand("viewer1", "raffle close", VIEWER)); // Just another entry from a viewer
+
+        assertEquals("Raffle closed with 2 entries.", cm.parseCommand("a_mod", "raffle close", MOD));
+        assertEquals("", cm.parseCommand("viewer2", "raffle", VIEWER));
+
+        String winners = cm.parseCommand("a_mod", "raffle draw 5", MOD);
+        assertTrue(winners.equals("The winners are generic_user, viewer1!") || winners.equals("The winners are viewer1, generic_user!"));
+        assertEquals("There is nobody left to draw.", cm.parseCommand("a_mod", "raffle draw", MOD));
+    }
+
+    @Test
+    public void testWeightedRaffle() throws Exception {
+        udm.join("broke_user");
+        udm.addCurrency("generic_user", 1_000_000);
+
+        cm.parseCommand("a_mod", "raffle open weighted", MOD);
+        cm.parseCommand("generic_user", "raffle", VIEWER);
+        cm.parseCommand("broke_user", "raffle", VIEWER);
+        // One ticket against a million and one, the broke user winning first would be a one in a million fluke
+        assertEquals("The winner is generic_user!", cm.parseCommand("a_mod", "raffle draw", MOD));
+        assertEquals("The winner is broke_user!", cm.parseCommand("a_mod", "raffle draw", MOD));
+    }
+
+    @Test
+    public void testAuction() throws Exception {
+        udm.join("viewer1");
+        udm.addCurrency("generic_user", 50);
+        udm.addCurrency("viewer1", 50);
+
+        assertEquals("", cm.parseCommand("generic_user", "auction", VIEWER)); // No auction yet
+        assertEquals("", cm.parseCommand("generic_user", "auction open Nope", VIEWER));
+        assertEquals("Auction open for A shoutout! Bid with !auction {amount}, starting at 10.",
+                cm.parseCommand("a_mod", "auction open 10 A shoutout", MOD));
+        assertEquals("Auction for A shoutout: no bids yet, bidding starts at 10.", cm.parseCommand("viewer1", "auction", VIEWER));
+
+        assertEquals("", cm.parseCommand("generic_user", "auction 20", VIEWER));
+        assertEquals("", cm.parseCommand("viewer1", "auction 25", VIEWER));
+        assertEquals("", cm.parseCommand("generic_user", "auction 60", VIEWER)); // Can't afford it
+        assertEquals("Auction for A shoutout: the highest bid is 25 by viewer1.", cm.parseCommand("generic_user", "auction", VIEWER));
+        assertEquals(50, udm.userCurrency("generic_user"));
+
+        assertEquals("Sold! A shoutout goes to viewer1 for 25.", cm.parseCommand("a_mod", "auction close", MOD));
+        assertEquals(25, udm.userCurrency("viewer1"));
+        assertEquals("There is no open auction.", cm.parseCommand("a_mod", "auction close", MOD));
+        assertEquals("The auction for A shoutout is over.", cm.parseCommand("viewer1", "auction", VIEWER));
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CopypastaTrackerTest {
+
+    private static final String PASTA = "I'm not saying this stream is the best on twitch but it definitely is the best on twitch";
+
+    private long now;
+    private CopypastaTracker tracker;
+
+    @Before
+    public void setUp() {
+        now = TimeUnit.HOURS.toNanos(1);
+        tracker = new CopypastaTracker(() -> now);
+    }
+
+    private boolean post(String nick, String message) {
+        return tracker.isCopypasta(nick, new MessageScan(message, null, true), 3, 30, TimeUnit.SECONDS);
+    }
+
+    private static int similarity(String a, String b) {
+        MessageScan first = new MessageScan(a, null, true);
+        MessageScan second = new MessageScan(b, null, true);
+        return MessageScan.matchingBuckets(first.sketchHigh(), first.sketchLow(), second.sketchHigh(), second.sketchLow());
+    }
+
+    @Test
+    public void testSketchSimilarity() {
+        assertEquals(16, similarity(PASTA, PASTA));
+        assertEquals(16, similarity(PASTA, PASTA.toUpperCase().replace(" ", "  "))); // Case and spacing don't count
+        assertTrue(similarity(PASTA, PASTA.replace("definitely", "totally")) >= CopypastaTracker.MATCHING_BUCKETS);
+        assertTrue(similarity(PASTA, "Does anyone know what keyboard he is using? It sounds really nice") < 6);
+    }
+
+    @Test
+    public void testManyUsersPostingTheSameThing() {
+        assertFalse(post("user1", PASTA));
+        assertFalse(post("user1", PASTA)); // The same user again doesn't count twice
+        assertFalse(post("user2", PASTA + " !!!"));
+        assertTrue(post("user3", "  " + PASTA.replace("best", "BEST")));
+        assertTrue(post("user4", PASTA));
+
+        assertFalse(post("user5", "Does anyone know what keyboard he is using? It sounds really nice"));
+        assertFalse(post("user6", "PogChamp")); // Too short to judge
+        assertFalse(post("user7", "PogChamp"));
+        assertFalse(post("user8", "PogChamp"));
+    }
+
+    @Test
+    public void testNicksWithTheSameHashCode() {
+        assertEquals("AaAa".hashCode(), "BBBB".hashCode());
+        assertFalse(post("AaAa", PASTA));
+        assertFalse(post("BBBB", PASTA)); // A different user, even if the hashes match
+        assertTrue(post("AaBB", PASTA));
+    }
+
+    @Test
+    public void testWindow() {
+        post("user1", PASTA);
+        post("user2", PASTA);
+        now += TimeUnit.SECONDS.toNanos(31);
+        assertFalse(post("user3", PASTA)); // The others are too long ago
+        assertFalse(post("user4", PASTA));
+        assertTrue(post("user5", PASTA));
+    }
+
+    @Test
+    public void testRingIsBounded() {
+        post("user1", PASTA);
+        post("user2", PASTA);
+        for (int i = 0; i < CopypastaTracker.RING_SIZE; i++) post("chatter" + i, "message number " + i + " is about something else entirely");
+        assertFalse(post("user3", PASTA)); // Pushed out of the ring
+    }
+}
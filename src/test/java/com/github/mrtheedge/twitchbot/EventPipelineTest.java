@@ -0,0 +1,116 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of EventPipeline
+ */
+public class EventPipelineTest {
+
+    EventPipeline pipeline;
+
+    @After
+    public void tearDown() throws Exception {
+        pipeline.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testEventsForOneUserStayInOrder() throws Exception {
+        pipeline = new EventPipeline(4);
+        List<Integer> seen = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            assertTrue(pipeline.submit("#chan", "generic_user", () -> seen.add(n), true));
+        }
+        pipeline.shutdown(5, TimeUnit.SECONDS);
+
+        assertEquals(1000, seen.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) seen.get(i));
+        }
+    }
+
+    @Test
+    public void testMessagesAreShedBeforeMembershipEvents() throws Exception {
+        pipeline = new EventPipeline(1, 2, 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+
+        pipeline.submit("#chan", "generic_user", () -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException ignored) {}
+        }, false);
+        Thread.sleep(100); // Let the worker pick up the blocking task
+
+        assertTrue(pipeline.submit("#chan", "generic_user", () -> {}, true));
+        assertTrue(pipeline.submit("#chan", "generic_user", () -> {}, true));
+        assertFalse(pipeline.submit("#chan", "generic_user", () -> {}, true));    // Only the reserve is left
+        assertTrue(pipeline.submit("#chan", "generic_user", () -> {}, false));    // Joins and parts can still use it
+        assertFalse(pipeline.submit("#chan", "generic_user", () -> {}, false));
+
+        assertEquals(2, pipeline.droppedCount());
+        blocker.countDown();
+    }
+
+    @Test
+    public void testBatchesRunOnEachUsersOwnWorker() throws Exception {
+        pipeline = new EventPipeline(4);
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) users.add("user" + i);
+        Map<String, String> ownThread = new ConcurrentHashMap<>();
+        Map<String, String> batchThread = new ConcurrentHashMap<>();
+
+        for (String user : users) {
+            pipeline.submit("#chan", user, () -> ownThread.put(user, Thread.currentThread().getName()), false);
+        }
+        List<List<String>> batches = pipeline.partition("#chan", users);
+        assertTrue(batches.size() <= 4);
+        for (List<String> batch : batches) {
+            pipeline.submit("#chan", batch.get(0), () -> {
+                for (String user : batch) batchThread.put(user, Thread.currentThread().getName());
+            }, false);
+        }
+        pipeline.shutdown(5, TimeUnit.SECONDS);
+
+        assertEquals(1000, batchThread.size());
+        assertEquals(ownThread, batchThread);
+    }
+
+    @Test
+    public void testAwaitQueued() throws Exception {
+        pipeline = new EventPipeline(4);
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            pipeline.submit("#chan", "user" + i, () -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {}
+                ran.incrementAndGet();
+            }, false);
+        }
+
+        assertTrue(pipeline.awaitQueued(10, TimeUnit.SECONDS));
+        assertEquals(1000, ran.get());
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        pipeline.submit("#chan", "generic_user", () -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException ignored) {}
+        }, false);
+        assertFalse(pipeline.awaitQueued(100, TimeUnit.MILLISECONDS)); // One worker is stuck
+        blocker.countDown();
+    }
+}
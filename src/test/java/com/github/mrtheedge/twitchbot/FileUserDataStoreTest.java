@@ -0,0 +1,139 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of FileUserDataStore in a temporary directory
+ */
+public class FileUserDataStoreTest {
+
+    static final long NEVER = 3_600_000; // Only flush when the test asks
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.getRoot().toPath();
+    }
+
+    @Test
+    public void testJournalSurvivesACrash() throws Exception {
+        FileUserDataStore store = new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES);
+        UserDataManager udm = new UserDataManager(store);
+        udm.join("alice");
+        udm.join("bob");
+        udm.addCurrency("alice", 100);
+        store.flush();
+        udm.addCurrency("bob", 20);
+        udm.removeCurrency("alice", 30);
+        store.flush();
+        // No close(), as if the process died here
+
+        UserDataManager restarted = new UserDataManager(new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES));
+        assertEquals(70, restarted.userCurrency("alice"));
+        assertEquals(20, restarted.userCurrency("bob"));
+        assertEquals(1, restarted.userCurrencyStanding("alice"));
+    }
+
+    @Test
+    public void testCompactionAndCleanShutdown() throws Exception {
+        FileUserDataStore store = new FileUserDataStore(dir, NEVER, 4096);
+        UserDataManager udm = new UserDataManager(store);
+        for (int i = 0; i < 1000; i++) {
+            udm.join("user" + i);
+            udm.addCurrency("user" + i, i);
+        }
+        store.flush(); // Well past 4096 bytes, so it compacts right away
+        assertTrue(Files.exists(dir.resolve("users.json")));
+        assertEquals(12, store.journalBytes()); // Just the header
+
+        udm.addCurrency("user1", 1000);
+        store.close();
+
+        FileUserDataStore reopened = new FileUserDataStore(dir, NEVER, 4096);
+        UserDataManager restarted = new UserDataManager(reopened);
+        assertEquals(1000, restarted.userCount());
+        assertEquals(500, restarted.userCurrency("user500"));
+        assertEquals(1001, restarted.userCurrency("user1"));
+        assertEquals("user1", restarted.topCurrencyStandings(1).get(0));
+        reopened.close();
+    }
+
+    @Test
+    public void testViewTimeOfUsersStillInChatIsSavedOnClose() throws Exception {
+        FileUserDataStore store = new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES);
+        UserTable table = new UserTable();
+        store.attach(table);
+        int id = table.restore("alice", 0, 0, 30, 0);
+        assertTrue(table.startSession(id, Instant.now().getEpochSecond() - 120)); // Joined two minutes ago, never parts
+        store.close();
+
+        FileUserDataStore reopened = new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES);
+        UserTable loaded = new UserTable();
+        reopened.attach(loaded);
+        int loadedId = loaded.idOf("alice");
+        assertFalse(loaded.isInChat(loadedId));
+        assertTrue(loaded.viewDuration(loadedId) >= 150);
+        reopened.close();
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        FileUserDataStore store = new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES);
+        UserDataManager udm = new UserDataManager(store);
+        udm.join("alice");
+        udm.addCurrency("alice", 5);
+        store.flush();
+
+        // Half of a record for bob, as if the process died in the middle of writing it
+        try (FileChannel journal = FileChannel.open(dir.resolve("users.journal"), StandardOpenOption.APPEND)) {
+            journal.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 0, 3, 'b', 'o', 'b', 0, 0}));
+        }
+
+        FileUserDataStore reopened = new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES);
+        UserDataManager restarted = new UserDataManager(reopened);
+        assertEquals(1, restarted.userCount());
+        assertEquals(5, restarted.userCurrency("alice"));
+
+        // New records go after the last good one
+        restarted.addCurrency("alice", 5);
+        reopened.flush();
+        UserDataManager again = new UserDataManager(new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES));
+        assertEquals(10, again.userCurrency("alice"));
+    }
+
+    @Test
+    public void testOldJournalIsNotReplayedOverNewerSnapshot() throws Exception {
+        FileUserDataStore store = new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES);
+        UserDataManager udm = new UserDataManager(store);
+        udm.join("alice");
+        udm.addCurrency("alice", 5);
+        store.flush();
+        Path oldJournal = dir.resolve("old.journal");
+        Files.copy(dir.resolve("users.journal"), oldJournal);
+
+        udm.addCurrency("alice", 5);
+        store.compact();
+        // As if the process died after the new snapshot was in place but before the journal was started over
+        Files.copy(oldJournal, dir.resolve("users.journal"), StandardCopyOption.REPLACE_EXISTING);
+
+        UserDataManager restarted = new UserDataManager(new FileUserDataStore(dir, NEVER, FileUserDataStore.DEFAULT_COMPACT_BYTES));
+        assertEquals(10, restarted.userCurrency("alice"));
+    }
+}
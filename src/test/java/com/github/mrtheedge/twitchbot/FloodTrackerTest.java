@@ -0,0 +1,71 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FloodTrackerTest {
+
+    private long now;
+    private FloodTracker tracker;
+
+    @Before
+    public void setUp() {
+        now = TimeUnit.HOURS.toNanos(1);
+        tracker = new FloodTracker(() -> now);
+    }
+
+    private boolean post(String nick) {
+        return tracker.isFlooding(nick, 5, 10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testOverTheLimit() {
+        for (int i = 0; i < 5; i++) assertFalse(post("spammer"));
+        assertTrue(post("spammer"));
+        assertFalse(post("someone_else"));
+    }
+
+    @Test
+    public void testNicksWithTheSameHashCode() {
+        assertEquals("AaAaAa".hashCode(), "BBBBBB".hashCode());
+        for (int i = 0; i < 5; i++) assertFalse(post("AaAaAa"));
+        assertFalse(post("BBBBBB")); // Doesn't share the spammer's counters
+        assertTrue(post("AaAaAa"));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        now += TimeUnit.SECONDS.toNanos(9); // Near the end of a window
+        for (int i = 0; i < 5; i++) assertFalse(post("spammer"));
+
+        // Just into the next window, most of the last one still counts
+        now += TimeUnit.SECONDS.toNanos(2);
+        assertTrue(post("spammer"));
+
+        // A whole window later, only a little of it does
+        now += TimeUnit.SECONDS.toNanos(9);
+        assertFalse(post("spammer"));
+
+        // Two windows of quiet, it's all forgotten
+        now += TimeUnit.SECONDS.toNanos(25);
+        for (int i = 0; i < 5; i++) assertFalse(post("spammer"));
+    }
+
+    @Test
+    public void testManyUsers() {
+        // 20k users each posting right up to the limit in one window (10k messages a second), hardly any of the
+        // messages should be caught by sharing counters with the others
+        int flagged = 0;
+        for (int round = 0; round < 5; round++) {
+            for (int user = 0; user < 20_000; user++) {
+                if (post("user" + user)) flagged++;
+            }
+        }
+        assertTrue("Flagged " + flagged, flagged < 5 * 20_000 / 200);
+        assertTrue(post("user1")); // But going over still counts
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of H2UserDataStore against an in-memory database
+ */
+public class H2UserDataStoreTest {
+
+    static final String URL = "jdbc:h2:mem:users_test;DB_CLOSE_DELAY=-1";
+
+    H2UserDataStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new H2UserDataStore(URL, 3600); // Only flush when the test asks
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        try (Connection c = DriverManager.getConnection(URL)) {
+            c.createStatement().execute("DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    public void testChangesSurviveARestart() throws Exception {
+        UserDataManager udm = new UserDataManager(store);
+        udm.join("alice");
+        udm.join("bob");
+        udm.addCurrency("alice", 100);
+        udm.addCurrency("bob", 20);
+        udm.part("bob");
+
+        assertEquals(2, store.dirtyCount());
+        store.flush();
+        assertEquals(0, store.dirtyCount());
+
+        H2UserDataStore reopened = new H2UserDataStore(URL, 3600);
+        UserDataManager restarted = new UserDataManager(reopened);
+        assertEquals(100, restarted.userCurrency("alice"));
+        assertEquals(20, restarted.userCurrency("bob"));
+        assertEquals(1, restarted.userCurrencyStanding("alice"));
+        assertEquals(2, restarted.userCurrencyStanding("bob"));
+        reopened.close();
+    }
+
+    @Test
+    public void testViewTimeOfUsersStillInChatIsSavedOnClose() throws Exception {
+        UserTable table = new UserTable();
+        store.attach(table);
+        int id = table.restore("alice", 0, 0, 30, 0);
+        assertTrue(table.startSession(id, Instant.now().getEpochSecond() - 120)); // Joined two minutes ago, never parts
+        store.close();
+
+        UserTable loaded = new UserTable();
+        H2UserDataStore reopened = new H2UserDataStore(URL, 3600);
+        reopened.attach(loaded);
+        int loadedId = loaded.idOf("alice");
+        assertFalse(loaded.isInChat(loadedId));
+        assertTrue(loaded.viewDuration(loadedId) >= 150);
+        reopened.close();
+    }
+
+    @Test
+    public void testBulkLoad() throws Exception {
+        int count = 50_000;
+        UserTable table = new UserTable();
+        store.attach(table);
+        for (int i = 0; i < count; i++) {
+            table.markDirty(table.restore("user" + i, i, i, i, i));
+        }
+        assertEquals(count, store.dirtyCount());
+        store.flush();
+        assertEquals(0, store.dirtyCount());
+
+        UserTable loaded = new UserTable();
+        H2UserDataStore reopened = new H2UserDataStore(URL, 3600);
+        reopened.attach(loaded);
+        assertEquals(count, loaded.size());
+        int id = loaded.idOf("user1234");
+        assertEquals(1234, loaded.currency(id));
+        assertEquals(1234, loaded.viewDuration(id));
+        assertEquals(0, reopened.dirtyCount()); // Loading doesn't count as a change
+        reopened.close();
+    }
+}
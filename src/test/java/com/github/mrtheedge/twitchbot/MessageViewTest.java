@@ -0,0 +1,74 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageViewTest {
+
+    static final String LINE = "@badge-info=subscriber/14;badges=moderator/1,subscriber/12;color=#1E90FF;"
+            + "display-name=Some\\sUser;emotes=1902:12-16/25:0-4,6-10;mod=1;subscriber=1;tmi-sent-ts=1507246572675"
+            + " :some_user!some_user@some_user.tmi.twitch.tv PRIVMSG #Channel :Kappa Kappa Keepo hi";
+
+    @Test
+    public void testParse() {
+        MessageView message = MessageView.parse(LINE);
+        assertEquals("some_user", message.nick());
+        assertEquals("#channel", message.channel());
+        assertEquals("Kappa Kappa Keepo hi", message.text());
+        assertTrue(message.textStartsWith('K'));
+        assertTrue(message.textEquals("Kappa Kappa Keepo hi"));
+        assertFalse(message.isAction());
+
+        MessageView untagged = MessageView.parse(":user!user@user.tmi.twitch.tv PRIVMSG #chan :!hello");
+        assertEquals("user", untagged.nick());
+        assertEquals("!hello", untagged.text());
+        assertNull(untagged.tag("mod"));
+        assertEquals(PermissionLevel.None, untagged.permission());
+
+        assertNull(MessageView.parse(":tmi.twitch.tv 001 bot :Welcome, GLHF!"));
+        assertNull(MessageView.parse("@msg-id=room_mods :tmi.twitch.tv NOTICE #chan :The moderators of this channel are: bot"));
+        assertNull(MessageView.parse("PING :tmi.twitch.tv"));
+        assertNull(MessageView.parse(":user!user@user.tmi.twitch.tv PRIVMSG bot :whisper"));
+    }
+
+    @Test
+    public void testTags() {
+        MessageView message = MessageView.parse(LINE);
+        assertEquals("Some User", message.tag("display-name"));
+        assertEquals("1507246572675", message.tag("tmi-sent-ts"));
+        assertEquals("subscriber/14", message.tag("badge-info"));
+        assertNull(message.tag("badge"));
+        assertNull(message.tag("user-type"));
+        assertEquals("", MessageView.parse("@flag;mod=1 :u!u@u PRIVMSG #c :x").tag("flag"));
+    }
+
+    @Test
+    public void testPermissionFromBadges() {
+        assertEquals(PermissionLevel.Mod, MessageView.parse(LINE).permission());
+        assertEquals(PermissionLevel.Broadcaster, permission("badges=broadcaster/1,subscriber/0;mod=0"));
+        assertEquals(PermissionLevel.Subscriber, permission("badges=founder/0;mod=0;subscriber=0"));
+        assertEquals(PermissionLevel.None, permission("badges=vip/1,premium/1;mod=0;subscriber=0"));
+        assertEquals(PermissionLevel.Mod, permission("badges=;mod=1;subscriber=0")); // Old tags still count
+        assertEquals(PermissionLevel.None, permission("badges=moderators/1;mod=10"));
+    }
+
+    @Test
+    public void testEmotes() {
+        assertArrayEquals(new int[]{0, 5, 6, 11, 12, 17}, MessageView.parse(LINE).emotes());
+        assertSame(MessageView.NO_EMOTES, emotes("emotes=", "hi"));
+        assertSame(MessageView.NO_EMOTES, emotes("emotes=25:0-40", "Kappa")); // Past the end
+        assertSame(MessageView.NO_EMOTES, emotes("emotes=25:x-4", "Kappa"));
+
+        // Twitch counts code points, the emoji before Kappa is two chars
+        assertArrayEquals(new int[]{3, 8}, emotes("emotes=25:2-6", "\uD83D\uDE00 Kappa"));
+    }
+
+    private static PermissionLevel permission(String tags) {
+        return MessageView.parse("@" + tags + " :u!u@u.tmi.twitch.tv PRIVMSG #c :hi").permission();
+    }
+
+    private static int[] emotes(String tags, String text) {
+        return MessageView.parse("@" + tags + " :u!u@u.tmi.twitch.tv PRIVMSG #c :" + text).emotes();
+    }
+}
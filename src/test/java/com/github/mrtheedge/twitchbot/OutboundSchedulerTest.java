@@ -0,0 +1,107 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of OutboundScheduler against a stub IRC sink and a manual clock
+ */
+public class OutboundSchedulerTest {
+
+    List<String> sent;
+    long now;
+    OutboundScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        sent = new ArrayList<>();
+        now = 0;
+        scheduler = new OutboundScheduler((c, m) -> sent.add(m), () -> now);
+    }
+
+    @Test
+    public void testModerationGoesFirst() throws Exception {
+        scheduler.sendMessage("#chan", "reply one");
+        scheduler.sendMessage("#chan", "reply two");
+        scheduler.timeout("#chan", "spammer", 600);
+
+        while (scheduler.sendNext() == 0);
+
+        assertEquals(Arrays.asList("/timeout spammer 600", "reply one", "reply two"), sent);
+    }
+
+    @Test
+    public void testDuplicateTimeoutsAreMerged() throws Exception {
+        scheduler.timeout("#chan", "spammer", 600);
+        scheduler.timeout("#chan", "other", 60);
+        scheduler.timeout("#chan", "spammer", 900);
+        scheduler.timeout("#chan", "spammer", 300);
+
+        while (scheduler.sendNext() == 0);
+
+        assertEquals(Arrays.asList("/timeout spammer 900", "/timeout other 60"), sent);
+    }
+
+    @Test
+    public void testStaysUnderTheRateLimit() throws Exception {
+        for (int i = 0; i < OutboundScheduler.MAX_PENDING_REPLIES; i++) {
+            scheduler.sendMessage("#chan", "reply " + i);
+        }
+
+        // Step through 30 seconds in 100ms ticks, sending whenever the budget allows
+        for (long t = 0; t < TimeUnit.SECONDS.toNanos(30); t += TimeUnit.MILLISECONDS.toNanos(100)) {
+            now = t;
+            while (scheduler.sendNext() == 0);
+        }
+        assertTrue(sent.size() <= 20);
+        assertTrue(sent.size() >= 15);
+
+        // Moderators have a much bigger budget, once the last window is over
+        sent.clear();
+        now += TimeUnit.SECONDS.toNanos(30);
+        scheduler.setModerator(true);
+        for (int i = 0; i < OutboundScheduler.MAX_PENDING_REPLIES; i++) {
+            scheduler.sendMessage("#chan", "reply " + i);
+        }
+        while (scheduler.sendNext() == 0);
+        assertEquals(25, sent.size());
+    }
+
+    @Test
+    public void testSwitchingBudgetsKeepsWhatWasSpent() throws Exception {
+        scheduler.setModerator(true);
+        for (int i = 0; i < OutboundScheduler.MAX_PENDING_REPLIES; i++) {
+            scheduler.sendMessage("#chan", "reply " + i);
+        }
+        while (scheduler.sendNext() == 0);
+        assertEquals(25, sent.size());
+
+        // Unmodded right after the burst, the normal budget is already used up
+        scheduler.setModerator(false);
+        assertTrue(scheduler.sendNext() > 0);
+        scheduler.setModerator(true);
+        assertTrue(scheduler.sendNext() > 0);
+        assertEquals(25, sent.size());
+
+        // And it refills like any other
+        now += TimeUnit.MILLISECONDS.toNanos(400);
+        assertEquals(0, scheduler.sendNext());
+        assertEquals(26, sent.size());
+    }
+
+    @Test
+    public void testRepliesAreDroppedWhenTooManyAreWaiting() throws Exception {
+        for (int i = 0; i < OutboundScheduler.MAX_PENDING_REPLIES + 10; i++) {
+            scheduler.sendMessage("#chan", "reply " + i);
+        }
+        assertEquals(10, scheduler.droppedReplies());
+        assertEquals(OutboundScheduler.MAX_PENDING_REPLIES, scheduler.pendingCount());
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PollTest {
+
+    @Test
+    public void testOneVotePerUser() {
+        Poll poll = new Poll("Best color", Arrays.asList("Red", "Blue", "Green"));
+
+        assertEquals(Poll.VoteResult.COUNTED, poll.vote(0, 1));
+        assertEquals(Poll.VoteResult.ALREADY_VOTED, poll.vote(0, 2));
+        assertEquals(Poll.VoteResult.NO_SUCH_OPTION, poll.vote(1, 4));
+        assertEquals(Poll.VoteResult.COUNTED, poll.vote(1, 2));
+        assertEquals(Poll.VoteResult.COUNTED, poll.vote(1_000_000, 2)); // Far off ids only add the page they need
+
+        assertArrayEquals(new long[]{1, 2, 0}, poll.results());
+        assertEquals("Best color: 1) Red - 1 (33%), 2) Blue - 2 (67%), 3) Green - 0 (0%)", poll.describeResults());
+
+        poll.close();
+        assertEquals(Poll.VoteResult.CLOSED, poll.vote(2, 1));
+    }
+
+    @Test
+    public void testConcurrentVotes() throws InterruptedException {
+        Poll poll = new Poll("Yes or no", Arrays.asList("Yes", "No"));
+        int users = 200_000;
+        AtomicInteger counted = new AtomicInteger();
+
+        // Every thread tries to vote for every user, only one vote per user can count
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int option = t % 2 + 1;
+            threads[t] = new Thread(() -> {
+                for (int id = 0; id < users; id++) {
+                    if (poll.vote(id, option) == Poll.VoteResult.COUNTED) counted.incrementAndGet();
+                    if (id % 1000 == 0) poll.results(); // Reading along the way doesn't get in the way
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        long[] results = poll.results();
+        assertEquals(users, counted.get());
+        assertEquals(users, results[0] + results[1]);
+    }
+
+    @Test
+    public void testUserIdSet() {
+        UserIdSet set = new UserIdSet();
+        assertFalse(set.contains(70_000));
+        assertTrue(set.add(70_000));
+        assertFalse(set.add(70_000));
+        assertTrue(set.contains(70_000));
+        assertFalse(set.contains(70_001));
+        assertFalse(set.contains(5));
+        assertTrue(set.add(63));
+        assertTrue(set.add(64));
+        assertTrue(set.contains(63));
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RaffleTest {
+
+    @Test
+    public void testEnterOnce() {
+        Raffle raffle = new Raffle(id -> 1);
+        assertEquals(Raffle.EntryResult.ENTERED, raffle.enter(3));
+        assertEquals(Raffle.EntryResult.ALREADY_ENTERED, raffle.enter(3));
+        assertEquals(Raffle.EntryResult.ENTERED, raffle.enter(4));
+        assertEquals(2, raffle.entryCount());
+
+        assertEquals(2, raffle.close());
+        assertFalse(raffle.isOpen());
+        assertEquals(Raffle.EntryResult.CLOSED, raffle.enter(5));
+    }
+
+    @Test
+    public void testDrawWithoutReplacement() {
+        Raffle raffle = new Raffle(id -> 1);
+        for (int id = 0; id < 10_000; id++) raffle.enter(id);
+
+        Random random = new Random(42);
+        Set<Integer> winners = new HashSet<>();
+        for (int i = 0; i < 10_000; i++) assertTrue(winners.add(raffle.draw(random)));
+        assertEquals(UserTable.NO_USER, raffle.draw(random));
+        assertEquals(0, raffle.remaining());
+    }
+
+    @Test
+    public void testWeightedDraws() {
+        // User 0 has 9 times the tickets of user 1, user 2 has none
+        Random random = new Random(7);
+        int zeroWins = 0;
+        for (int trial = 0; trial < 2000; trial++) {
+            Raffle raffle = new Raffle(id -> id == 0 ? 9 : id == 1 ? 1 : 0);
+            raffle.enter(0);
+            raffle.enter(1);
+            raffle.enter(2);
+            if (raffle.draw(random) == 0) zeroWins++;
+        }
+        assertEquals(1800, zeroWins, 60);
+
+        Raffle raffle = new Raffle(id -> id == 2 ? 0 : 1);
+        raffle.enter(0);
+        raffle.enter(1);
+        raffle.enter(2);
+        raffle.draw(random);
+        raffle.draw(random);
+        assertEquals(UserTable.NO_USER, raffle.draw(random)); // Nobody with tickets left
+    }
+
+    @Test
+    public void testConcurrentEntries() throws InterruptedException {
+        Raffle raffle = new Raffle(id -> 1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t * 25_000;
+            threads[t] = new Thread(() -> {
+                for (int id = first; id < first + 50_000; id++) raffle.enter(id % 200_000); // Half are repeats
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertEquals(200_000, raffle.close());
+        Set<Integer> winners = new HashSet<>();
+        Random random = new Random(1);
+        int winner;
+        while ((winner = raffle.draw(random)) != UserTable.NO_USER) assertTrue(winners.add(winner));
+        assertEquals(200_000, winners.size());
+    }
+}
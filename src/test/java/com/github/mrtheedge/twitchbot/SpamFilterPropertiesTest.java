@@ -0,0 +1,56 @@
+package com.github.mrtheedge.twitchbot;
+
+import javafx.beans.property.SimpleIntegerProperty;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpamFilterPropertiesTest {
+
+    SpamFilter filter;
+    SpamFilterProperties properties;
+
+    @Before
+    public void setUp() {
+        filter = new SpamFilter();
+        properties = new SpamFilterProperties(filter);
+    }
+
+    @Test
+    public void testPropertiesUpdateTheFilter() {
+        assertEquals(3, properties.allowedStrikesProperty().get());
+        assertTrue(properties.checkForFloodProperty().get());
+
+        properties.allowedStrikesProperty().set(5);
+        properties.percentageCapsProperty().set(0.5);
+        properties.checkForFloodProperty().set(false);
+        assertEquals(5, filter.getConfig().getAllowedStrikes());
+        assertEquals(0.5, filter.getConfig().getPercentageCaps(), 0);
+        assertFalse(filter.getConfig().isCheckForFlood());
+
+        // Bound like a UI control would be
+        SimpleIntegerProperty slider = new SimpleIntegerProperty(60);
+        properties.timeoutSecondsProperty().bindBidirectional(slider);
+        slider.set(120);
+        assertEquals(120, filter.getConfig().getTimeoutSeconds());
+    }
+
+    @Test
+    public void testInvalidValueIsPutBack() {
+        properties.allowedStrikesProperty().set(0);
+        assertEquals(3, properties.allowedStrikesProperty().get());
+        assertEquals(3, filter.getConfig().getAllowedStrikes());
+    }
+
+    @Test
+    public void testReload() {
+        filter.updateConfig(c -> c.toBuilder().setFloodMessages(20).setCheckForCaps(false).build());
+        assertEquals(8, properties.floodMessagesProperty().get());
+
+        properties.reload();
+        assertEquals(20, properties.floodMessagesProperty().get());
+        assertFalse(properties.checkForCapsProperty().get());
+        assertEquals(20, filter.getConfig().getFloodMessages());
+    }
+}
@@ -73,4 +73,99 @@ public class SpamFilterTest {
         assertEquals(SpamType.NONE, sf.isSpam(user, message));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLinkDetection() throws Exception {
+        String user = "generic_user";
+
+        assertEquals(SpamType.LINK, sf.isSpam(user, "go to https://clips.twitch.tv/something"));
+        assertEquals(SpamType.LINK, sf.isSpam(user, "(google.com)"));
+        assertEquals(SpamType.LINK, sf.isSpam(user, "ends with a dot google.com."));
+
+        assertEquals(SpamType.NONE, sf.isSpam(user, "wait... what"));
+        assertEquals(SpamType.NONE, sf.isSpam(user, "only costs 3.50 today"));
+        assertEquals(SpamType.NONE, sf.isSpam(user, "version 1.2.3 is out"));
+    }
+
+    @Test(timeout = 1000)
+    public void testLongMessageDoesNotBacktrack() throws Exception {
+        StringBuilder sb = new StringBuilder("a.bc");
+        for (int i = 0; i < 50000; i++) sb.append("/a .");
+        sb.append('!');
+
+        assertEquals(SpamType.LINK, sf.isSpam("generic_user", sb.toString()));
+    }
+
+    @Test
+    public void testBlacklistMatchesWholeTokens() throws Exception {
+        String user = "generic_user";
+        sf.addWordToBlacklist("foobar");
+
+        assertEquals(SpamType.BLACKLISTED, sf.isSpam(user, "foobar"));
+        assertEquals(SpamType.BLACKLISTED, sf.isSpam(user, "say  foobar  twice"));
+        assertEquals(SpamType.NONE, sf.isSpam(user, "foobars are fine"));
+    }
+
+    @Test
+    public void testCopypasta() throws Exception {
+        String message = "Chat is this real? I can't believe what I just saw on stream, somebody clip that";
+
+        assertEquals(SpamType.NONE, sf.isSpam("user1", message));
+        assertEquals(SpamType.NONE, sf.isSpam("user2", message));
+        assertEquals(SpamType.COPYPASTA, sf.isSpam("user3", message));
+        assertEquals(SpamType.NONE, sf.isSpam("user4", "Hey I love the stream!!"));
+    }
+
+    @Test
+    public void testEmotesAreSkipped() throws Exception {
+        sf.addWordToBlacklist("TriHard");
+        String tags = "@badges=;emotes=25:0-4,6-10;mod=0 :user!user@user.tmi.twitch.tv PRIVMSG #chan :";
+
+        assertEquals(SpamType.NONE, sf.isSpam(MessageView.parse(tags + "KAPPA KAPPA")));
+        assertEquals(SpamType.CAPS, sf.isSpam(MessageView.parse(tags.replace("25:0-4,6-10", "") + "KAPPA KAPPA")));
+        assertEquals(SpamType.CAPS, sf.isSpam(MessageView.parse(tags + "KAPPA KAPPA THIS IS SHOUTING")));
+
+        String emote = "@emotes=120232:4-10 :user!user@user.tmi.twitch.tv PRIVMSG #chan :Hey TriHard";
+        assertEquals(SpamType.NONE, sf.isSpam(MessageView.parse(emote)));
+        assertEquals(SpamType.BLACKLISTED, sf.isSpam(MessageView.parse(emote.replace("120232:4-10", ""))));
+    }
+
+    @Test
+    public void testConfig() throws Exception {
+        String user = "generic_user";
+        sf.updateConfig(c -> c.toBuilder().setCheckForCaps(false).setAllowedStrikes(1).build());
+        assertEquals(SpamType.NONE, sf.isSpam(user, "HEY I LOVE THE STREAM"));
+        assertEquals(1, sf.getConfig().getAllowedStrikes());
+        assertTrue(sf.getConfig().isCheckForLinks()); // Everything else kept
+
+        final String[] timedOut = new String[1];
+        sf.registerCallback((u, t) -> timedOut[0] = u);
+        assertEquals(SpamType.LINK, sf.isSpam(user, "www.google.com"));
+        assertEquals(user, timedOut[0]); // One strike was enough
+
+        sf.setConfig(SpamFilterConfig.DEFAULT);
+        assertEquals(SpamType.CAPS, sf.isSpam(user, "HEY I LOVE THE STREAM"));
+
+        try {
+            SpamFilterConfig.DEFAULT.toBuilder().setPercentageCaps(1.5);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testConcurrentConfigUpdatesAreNotLost() throws Exception {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    sf.updateConfig(c -> c.toBuilder().setTimeoutSeconds(c.getTimeoutSeconds() + 1).build());
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertEquals(SpamFilterConfig.DEFAULT.getTimeoutSeconds() + 4000, sf.getConfig().getTimeoutSeconds());
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of StrikeTracker with a manual clock
+ */
+public class StrikeTrackerTest {
+
+    long now;
+    TimerWheel wheel;
+    StrikeTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        now = TimeUnit.HOURS.toNanos(1);
+        wheel = new TimerWheel(1, TimeUnit.SECONDS, () -> now); // Driven by the test with advance()
+        tracker = new StrikeTracker(wheel, () -> now);
+    }
+
+    @Test
+    public void testStrikesReachTheLimit() throws Exception {
+        assertFalse(tracker.addStrike("spammer", 3, 10, TimeUnit.MINUTES));
+        assertFalse(tracker.addStrike("spammer", 3, 10, TimeUnit.MINUTES));
+        assertTrue(tracker.addStrike("spammer", 3, 10, TimeUnit.MINUTES));
+        assertEquals(0, tracker.strikesFor("spammer")); // Cleared once the limit was reached
+    }
+
+    @Test
+    public void testStrikesDecay() throws Exception {
+        tracker.addStrike("spammer", 3, 10, TimeUnit.MINUTES);
+        tracker.addStrike("spammer", 3, 10, TimeUnit.MINUTES);
+
+        now += TimeUnit.MINUTES.toNanos(11);
+        assertEquals(0, tracker.strikesFor("spammer"));
+        assertFalse(tracker.addStrike("spammer", 3, 10, TimeUnit.MINUTES)); // Starts over at one
+        assertEquals(1, tracker.strikesFor("spammer"));
+    }
+
+    @Test
+    public void testWheelForgetsOldOffenders() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            tracker.addStrike("user" + i, 3, 10, TimeUnit.MINUTES);
+        }
+        assertEquals(1000, tracker.trackedUsers());
+
+        now += TimeUnit.MINUTES.toNanos(5);
+        wheel.advance();
+        tracker.addStrike("user0", 3, 10, TimeUnit.MINUTES); // Pushes user0's window out
+        now += TimeUnit.SECONDS.toNanos(1);
+        wheel.advance();
+        assertEquals(1000, wheel.waitingCount()); // The first expiry for user0 was cancelled
+
+        // Nobody else gets a strike, the wheel forgets them anyway
+        now += TimeUnit.MINUTES.toNanos(6);
+        wheel.advance();
+        assertEquals(1, tracker.trackedUsers());
+        assertEquals(2, tracker.strikesFor("user0"));
+
+        now += TimeUnit.MINUTES.toNanos(5);
+        wheel.advance();
+        assertEquals(0, tracker.trackedUsers());
+        assertEquals(0, wheel.waitingCount());
+    }
+
+    @Test
+    public void testReachingTheLimitCancelsTheExpiry() throws Exception {
+        tracker.addStrike("spammer", 2, 10, TimeUnit.MINUTES);
+        now += TimeUnit.SECONDS.toNanos(1);
+        wheel.advance();
+        assertEquals(1, wheel.waitingCount());
+
+        assertTrue(tracker.addStrike("spammer", 2, 10, TimeUnit.MINUTES));
+        now += TimeUnit.SECONDS.toNanos(1);
+        wheel.advance();
+        assertEquals(0, wheel.waitingCount());
+    }
+
+    @Test
+    public void testConcurrentStrikesAreNotLost() throws Exception {
+        AtomicInteger timeouts = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    if (tracker.addStrike("spammer", 5, 10, TimeUnit.MINUTES)) timeouts.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        assertEquals(40_000 / 5, timeouts.get());
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.mrtheedge.twitchbot;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Just enough of Twitch's IRC server to get a bot connected, on loopback: answers the CAP negotiation, welcomes the
+ * bot, echoes its JOINs, answers PINGs and /mods (so the bot gets the moderator message budget). Tests push chat lines
+ * in with send() and read what the bot said with nextLine().
+ *
+ * The benchmarks' ReplayHarness uses it too (through the test jar): it queues lines with write() and pushes a batch out
+ * with flush(), and takes every line the bot sends through a listener, with the System.nanoTime() it was read at.
+ */
+class StubIrcServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final BiConsumer<String, Long> listener;
+    private final Thread acceptor;
+    private volatile Socket client;
+    private volatile Writer out;
+    private volatile String nick = "bot";
+
+    StubIrcServer() throws IOException {
+        this(null);
+    }
+
+    /*
+        Lines from the bot go to the listener instead of nextLine().
+     */
+    StubIrcServer(BiConsumer<String, Long> listener) throws IOException {
+        this.listener = listener != null ? listener : (line, receivedAt) -> received.add(line);
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::serve, "stub-irc-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /*
+        A PRIVMSG as Twitch sends it, with tags.
+     */
+    void chat(String channel, String user, String tags, String message) throws IOException {
+        send("@" + tags + " :" + user + "!" + user + "@" + user + ".tmi.twitch.tv PRIVMSG " + channel + " :" + message);
+    }
+
+    void join(String channel, String user) throws IOException {
+        send(":" + user + "!" + user + "@" + user + ".tmi.twitch.tv JOIN " + channel);
+    }
+
+    void send(String line) throws IOException {
+        write(line);
+        flush();
+    }
+
+    /*
+        Queues a raw line. Nothing goes out until flush().
+     */
+    void write(String line) throws IOException {
+        Writer out = this.out;
+        if (out == null) throw new IOException("The bot hasn't connected");
+        synchronized (this) {
+            out.write(line);
+            out.write("\r\n");
+        }
+    }
+
+    synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /*
+        Next line from the bot that starts with the prefix, skipping any others.
+     */
+    String nextLine(String prefix, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            String line = received.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (line == null || line.startsWith(prefix)) return line;
+        }
+    }
+
+    /*
+        Waits until the bot has joined the channel.
+     */
+    boolean awaitJoin(String channel, long timeout, TimeUnit unit) throws InterruptedException {
+        return nextLine("JOIN " + channel, timeout, unit) != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        if (client != null) client.close();
+    }
+
+    private void serve() {
+        try {
+            client = serverSocket.accept();
+            client.setTcpNoDelay(true);
+            out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), 1 << 16);
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                long receivedAt = System.nanoTime();
+                handle(line);
+                listener.accept(line, receivedAt);
+            }
+        } catch (IOException ignored) {
+            // Closed
+        }
+    }
+
+    private void handle(String line) throws IOException {
+        if (line.startsWith("CAP LS")) {
+            send(":tmi.twitch.tv CAP * LS :twitch.tv/membership twitch.tv/tags twitch.tv/commands");
+        } else if (line.startsWith("CAP REQ")) {
+            send(":tmi.twitch.tv CAP * ACK " + line.substring("CAP REQ ".length()));
+        } else if (line.startsWith("NICK ")) {
+            nick = line.substring(5).trim();
+        } else if (line.startsWith("CAP END")) {
+            write(":tmi.twitch.tv 001 " + nick + " :Welcome, GLHF!");
+            write(":tmi.twitch.tv 002 " + nick + " :Your host is tmi.twitch.tv");
+            write(":tmi.twitch.tv 003 " + nick + " :This server is rather new");
+            write(":tmi.twitch.tv 004 " + nick + " :-");
+            write(":tmi.twitch.tv 375 " + nick + " :-");
+            write(":tmi.twitch.tv 372 " + nick + " :You are in a maze of twisty passages, all alike.");
+            send(":tmi.twitch.tv 376 " + nick + " :>");
+        } else if (line.startsWith("JOIN ")) {
+            for (String channel : line.substring(5).trim().split(",")) {
+                send(":" + nick + "!" + nick + "@" + nick + ".tmi.twitch.tv JOIN " + channel);
+            }
+        } else if (line.startsWith("PRIVMSG ") && line.endsWith(":/mods")) {
+            String channel = line.substring(8, line.indexOf(' ', 8));
+            send("@msg-id=room_mods :tmi.twitch.tv NOTICE " + channel + " :The moderators of this channel are: " + nick);
+        } else if (line.startsWith("QUIT")) {
+            client.close(); // Like the real server, hang up on the way out
+        } else if (line.startsWith("PING ")) {
+            send(":tmi.twitch.tv PONG tmi.twitch.tv " + line.substring(5));
+        }
+    }
+}
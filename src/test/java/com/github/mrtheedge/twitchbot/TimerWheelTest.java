@@ -0,0 +1,106 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of TimerWheel and ChatTimers against a manual clock
+ */
+public class TimerWheelTest {
+
+    long now;
+    TimerWheel wheel;
+    List<String> ran;
+
+    @Before
+    public void setUp() throws Exception {
+        now = 0;
+        wheel = new TimerWheel(1, TimeUnit.SECONDS, () -> now);
+        ran = new ArrayList<>();
+    }
+
+    @Test
+    public void testTasksRunWhenDue() throws Exception {
+        wheel.schedule(() -> ran.add("soon"), 3, TimeUnit.SECONDS);
+        wheel.schedule(() -> ran.add("later"), 20, TimeUnit.MINUTES); // Several times around the wheel
+
+        advanceSeconds(2);
+        assertTrue(ran.isEmpty());
+        advanceSeconds(1);
+        assertEquals(Arrays.asList("soon"), ran);
+
+        advanceSeconds(20 * 60 - 4);
+        assertEquals(Arrays.asList("soon"), ran);
+        advanceSeconds(1);
+        assertEquals(Arrays.asList("soon", "later"), ran);
+        assertEquals(0, wheel.waitingCount());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        TimerWheel.Timeout before = wheel.schedule(() -> ran.add("before"), 5, TimeUnit.SECONDS);
+        TimerWheel.Timeout after = wheel.schedule(() -> ran.add("after"), 5, TimeUnit.SECONDS);
+        assertTrue(before.cancel()); // Before the wheel has even seen it
+
+        advanceSeconds(1);
+        assertTrue(after.cancel()); // Already in a slot
+        assertFalse(after.cancel());
+
+        advanceSeconds(10);
+        assertTrue(ran.isEmpty());
+        assertEquals(0, wheel.waitingCount());
+    }
+
+    @Test
+    public void testManyTimers() throws Exception {
+        int count = 10_000;
+        int[] fired = new int[1];
+        for (int i = 0; i < count; i++) {
+            wheel.schedule(() -> fired[0]++, 1 + i % 900, TimeUnit.SECONDS);
+        }
+
+        advanceSeconds(900);
+        assertEquals(count, fired[0]);
+    }
+
+    @Test
+    public void testChatTimersNeedChatActivity() throws Exception {
+        List<String> sent = new ArrayList<>();
+        OutboundScheduler outbound = new OutboundScheduler((c, m) -> sent.add(c + " " + m), () -> now);
+        ChatTimers timers = new ChatTimers("#chan", wheel, outbound);
+
+        assertTrue(timers.add("follow", 10, 3, "Remember to follow!"));
+        assertFalse(timers.add("follow", 5, 0, "Duplicate"));
+
+        advanceSeconds(10 * 60);
+        while (outbound.sendNext() == 0);
+        assertTrue(sent.isEmpty()); // Nobody said anything
+
+        for (int i = 0; i < 3; i++) timers.lineSeen();
+        advanceSeconds(10 * 60);
+        while (outbound.sendNext() == 0);
+        assertEquals(Arrays.asList("#chan Remember to follow!"), sent);
+
+        for (int i = 0; i < 3; i++) timers.lineSeen();
+        assertTrue(timers.remove("follow"));
+        advanceSeconds(30 * 60);
+        while (outbound.sendNext() == 0);
+        assertEquals(1, sent.size());
+        assertEquals(0, wheel.waitingCount());
+    }
+
+    private void advanceSeconds(long seconds) {
+        // One tick at a time, like the driver thread would
+        for (long i = 0; i < seconds; i++) {
+            now += TimeUnit.SECONDS.toNanos(1);
+            wheel.advance();
+        }
+    }
+}
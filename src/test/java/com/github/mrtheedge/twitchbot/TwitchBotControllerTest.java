@@ -0,0 +1,73 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the controller against a stub IRC server with more than one channel on the same connection
+ */
+public class TwitchBotControllerTest {
+
+    static final String MOD_TAGS = "badges=moderator/1;mod=1;subscriber=0";
+    static final String VIEWER_TAGS = "badges=;mod=0;subscriber=0";
+
+    StubIrcServer server;
+    TwitchBotController controller;
+    Thread botThread;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubIrcServer();
+        controller = new TwitchBotController(Arrays.asList("#one", "two"), "localhost", server.getPort(),
+                "bot", "oauth:test", null);
+        botThread = new Thread(controller::connect);
+        botThread.start();
+
+        assertTrue(server.awaitJoin("#one", 10, TimeUnit.SECONDS));
+        assertTrue(server.awaitJoin("#two", 10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        controller.disconnect();
+        botThread.join(5000);
+        server.close();
+    }
+
+    @Test
+    public void testChannelsHaveTheirOwnState() throws Exception {
+        server.chat("#one", "mod_one", MOD_TAGS, "!addcom hello Hello from one, <user>");
+        assertEquals("PRIVMSG #one :Command !hello added.", server.nextLine("PRIVMSG #one :Command", 5, TimeUnit.SECONDS));
+
+        server.chat("#two", "mod_two", MOD_TAGS, "!addcom hello Hello from two, <user>");
+        assertEquals("PRIVMSG #two :Command !hello added.", server.nextLine("PRIVMSG #two :Command", 5, TimeUnit.SECONDS));
+
+        server.chat("#one", "viewer", VIEWER_TAGS, "!hello");
+        assertEquals("PRIVMSG #one :Hello from one, viewer", server.nextLine("PRIVMSG #one :Hello", 5, TimeUnit.SECONDS));
+
+        server.chat("#two", "viewer", VIEWER_TAGS, "!hello");
+        assertEquals("PRIVMSG #two :Hello from two, viewer", server.nextLine("PRIVMSG #two :Hello", 5, TimeUnit.SECONDS));
+
+        server.join("#one", "lurker");
+        server.chat("#one", "viewer", VIEWER_TAGS, "just chatting"); // Queued behind the join
+        Thread.sleep(200);
+        assertTrue(controller.getChannel("#one").getUserDataManager().userCreatedAt("lurker") > 0);
+        assertEquals(2, controller.getChannels().size());
+    }
+
+    @Test
+    public void testBroadcasterCanOnlyDisconnectTheirOwnChannel() throws Exception {
+        server.chat("#one", "two", VIEWER_TAGS, "!disconnect");
+        server.chat("#one", "one", VIEWER_TAGS, "!disconnect");
+
+        assertEquals("PART #one", server.nextLine("PART", 5, TimeUnit.SECONDS));
+        assertNull(controller.getChannel("#one"));
+        assertNotNull(controller.getChannel("#two"));
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.mrtheedge.twitchbot;
+
+import com.github.mrtheedge.twitchbot.exceptions.NoSuchUserException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of UserDataManager
+ */
+public class UserDataManagerTest {
+
+    UserDataManager udm;
+
+    @Before
+    public void setUp() throws Exception {
+        udm = new UserDataManager();
+        udm.join("alice");
+        udm.join("bob");
+        udm.join("carol");
+        udm.join("dave");
+    }
+
+    @Test
+    public void testTopCurrencyStandings() throws Exception {
+        udm.addCurrency("alice", 10);
+        udm.addCurrency("bob", 50);
+        udm.addCurrency("carol", 30);
+
+        assertEquals(Arrays.asList("bob", "carol", "alice"), udm.topCurrencyStandings(3));
+        assertEquals(Arrays.asList("bob", "carol", "alice", "dave"), udm.topCurrencyStandings(10));
+        assertEquals(Collections.emptyList(), udm.topCurrencyStandings(0));
+
+        udm.removeCurrency("bob", 45);
+        assertEquals(Arrays.asList("carol", "alice", "bob"), udm.topCurrencyStandings(3));
+    }
+
+    @Test
+    public void testUserCurrencyStanding() throws Exception {
+        udm.addCurrency("alice", 10);
+        udm.addCurrency("bob", 50);
+        udm.addCurrency("carol", 10);
+
+        assertEquals(1, udm.userCurrencyStanding("bob"));
+        assertEquals(2, udm.userCurrencyStanding("alice")); // Ties share a position
+        assertEquals(2, udm.userCurrencyStanding("carol"));
+        assertEquals(4, udm.userCurrencyStanding("dave"));
+
+        udm.addCurrency("dave", 100);
+        assertEquals(1, udm.userCurrencyStanding("dave"));
+        assertEquals(2, udm.userCurrencyStanding("bob"));
+    }
+
+    @Test
+    public void testStandingsWithManyUsers() throws Exception {
+        int count = 5000;
+        for (int i = 0; i < count; i++) {
+            udm.join("user" + i);
+            udm.addCurrency("user" + i, (i * 7919) % count); // Every amount from 0 to count - 1 exactly once
+        }
+
+        for (int i = 0; i < count; i += 97) {
+            int amount = (i * 7919) % count;
+            assertEquals(count - amount, udm.userCurrencyStanding("user" + i));
+        }
+        assertEquals("user2321", udm.topCurrencyStandings(1).get(0)); // 2321 * 7919 % 5000 == 4999
+    }
+
+    @Test
+    public void testViewTimeStandingsCountLurkers() throws Exception {
+        long[] now = {1_000_000};
+        UserDataManager udm = new UserDataManager(() -> now[0]);
+        udm.join("lurker");     // Never does anything else
+        udm.join("parted");
+        now[0] += 3600;
+        udm.part("parted");     // Settled at 1h
+        now[0] += 2400;
+        udm.join("newcomer");
+        now[0] += 1200;
+
+        assertEquals(Arrays.asList("lurker", "parted", "newcomer"), udm.topViewTimeStandings(3));
+        assertEquals(1, udm.userViewTimeStanding("lurker"));
+        assertEquals(2, udm.userViewTimeStanding("parted"));
+        assertEquals(3, udm.userViewTimeStanding("newcomer"));
+
+        // Another 40 minutes and the newcomer passes the user who left
+        now[0] += 2401;
+        assertEquals(Arrays.asList("lurker", "newcomer", "parted"), udm.topViewTimeStandings(3));
+        assertEquals(3, udm.userViewTimeStanding("parted"));
+        assertEquals(2 * 3600 + 2401, udm.userTotalViewTime("lurker"));
+    }
+
+    @Test(expected = NoSuchUserException.class)
+    public void testStandingForUnknownUser() throws Exception {
+        udm.userCurrencyStanding("nobody");
+    }
+
+    @Test
+    public void testActiveUsers() throws Exception {
+        udm.newMessage("alice");
+        udm.newMessage("carol");
+        udm.newMessage("alice");
+
+        List<String> active = udm.activeUsers(5);
+        Collections.sort(active);
+        assertEquals(Arrays.asList("alice", "carol"), active);
+        assertEquals(4, udm.usersInChatCount());
+
+        udm.part("alice");
+        assertEquals(Collections.singletonList("carol"), udm.activeUsers(5));
+        assertEquals(3, udm.usersInChatCount());
+    }
+
+    @Test
+    public void testPayout() throws Exception {
+        udm.newMessage("alice");
+        udm.part("dave");
+
+        assertEquals(3, udm.payout(10, 5, 5));
+        assertEquals(15, udm.userCurrency("alice")); // Chatting earns the bonus
+        assertEquals(10, udm.userCurrency("bob"));
+        assertEquals(10, udm.userCurrency("carol"));
+        assertEquals(0, udm.userCurrency("dave")); // Not in chat
+        assertEquals(Arrays.asList("alice", "bob", "carol", "dave"), udm.topCurrencyStandings(4));
+    }
+
+    @Test
+    public void testPayoutForManyViewers() throws Exception {
+        int count = 50_000;
+        int[] expected = new int[count];
+        for (String user : Arrays.asList("alice", "bob", "carol", "dave")) udm.part(user);
+        for (int i = 0; i < count; i++) {
+            udm.join("viewer" + i);
+            expected[i] = udm.addCurrency("viewer" + i, (i * 7919) % 1000);
+            if (i % 3 == 0) udm.part("viewer" + i); // Not paid
+        }
+
+        assertEquals(count - (count + 2) / 3, udm.payout(5, 0, 5));
+        for (int i = 0; i < count; i++) {
+            if (i % 3 != 0) expected[i] += 5;
+        }
+
+        for (int i = 0; i < count; i += 101) {
+            assertEquals(expected[i], udm.userCurrency("viewer" + i));
+
+            int higher = 0;
+            for (int amount : expected) if (amount > expected[i]) higher++;
+            assertEquals(higher + 1, udm.userCurrencyStanding("viewer" + i));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.mrtheedge.twitchbot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the functionality of UserTable
+ */
+public class UserTableTest {
+
+    UserTable table;
+
+    @Before
+    public void setUp() throws Exception {
+        table = new UserTable();
+    }
+
+    @Test
+    public void testIdsAreDenseAndStable() throws Exception {
+        int count = 20_000; // Several pages and several index resizes
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, table.intern("user" + i, i));
+        }
+
+        assertEquals(count, table.size());
+        assertEquals(UserTable.NO_USER, table.idOf("nobody"));
+        for (int i = 0; i < count; i += 997) {
+            assertEquals(i, table.idOf("user" + i));
+            assertEquals(i, table.intern("user" + i, 0)); // Already known, nothing changes
+            assertEquals("user" + i, table.nameOf(i));
+            assertEquals(i, table.createdAt(i));
+        }
+    }
+
+    @Test
+    public void testCurrencyNeverGoesNegative() throws Exception {
+        int id = table.intern("alice", 0);
+        assertEquals(10, table.addCurrency(id, 10));
+        assertEquals(0, table.addCurrency(id, -25));
+        assertEquals(Integer.MAX_VALUE, table.addCurrency(id, Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE, table.addCurrency(id, 1));
+    }
+
+    @Test
+    public void testDrainDirty() throws Exception {
+        for (int i = 0; i < 5000; i++) table.intern("user" + i, 0);
+        table.markDirty(3);
+        table.markDirty(4500);
+        table.markDirty(3);
+
+        List<Integer> drained = new ArrayList<>();
+        table.drainDirty(drained::add);
+        assertEquals(Arrays.asList(3, 4500), drained);
+        assertEquals(0, table.dirtyCount());
+
+        drained.clear();
+        table.drainDirty(drained::add);
+        assertTrue(drained.isEmpty());
+    }
+}